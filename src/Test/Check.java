@@ -0,0 +1,60 @@
+package Test;
+
+/**
+ * A check of the renderer which runs without a test framework, from
+ * {@link Tests#main(String[])}.
+ *
+ * A check reports every failed expectation with a message and keeps on
+ * checking, so one run lists all failures.
+ */
+public abstract class Check {
+
+	private int failures = 0;
+
+	/**
+	 * Runs this check, reporting its failures with
+	 * {@link #expect(boolean, String)}.
+	 *
+	 * @throws Exception
+	 *             when the check cannot be run, which counts as a failure.
+	 */
+	protected abstract void run() throws Exception;
+
+	/**
+	 * Reports the given message as a failure when the condition is false.
+	 *
+	 * @return the condition.
+	 */
+	protected boolean expect(boolean condition, String message) {
+		if (!condition) {
+			System.out.println(message);
+			failures++;
+		}
+		return condition;
+	}
+
+	/**
+	 * Returns whether the given doubles are the same bit for bit.
+	 */
+	protected static boolean same(double a, double b) {
+		return Double.doubleToRawLongBits(a) == Double.doubleToRawLongBits(b);
+	}
+
+	/**
+	 * Runs this check and prints whether it passed.
+	 *
+	 * @return the number of failures.
+	 */
+	int check() {
+		failures = 0;
+		try {
+			run();
+		} catch (Exception e) {
+			e.printStackTrace();
+			failures++;
+		}
+		System.out.println(String.format("%s: %s", getClass().getSimpleName(),
+				failures == 0 ? "OK" : "FAILED, " + failures + " checks failed"));
+		return failures;
+	}
+}
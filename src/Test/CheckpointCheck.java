@@ -0,0 +1,113 @@
+package Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import film.Checkpoint;
+import film.FrameBuffer;
+import film.RGBSpectrum;
+import film.Tile;
+
+/**
+ * Checks a store and load round trip of a {@link Checkpoint}: the resumed
+ * frame buffer must hold every channel of the finished tiles bit for bit, as
+ * they were when the tiles finished, and nothing of the unfinished tiles.
+ *
+ * It also checks that a checkpoint of different settings or a missing
+ * checkpoint is not resumed, and that a truncated checkpoint is reported as
+ * corrupt.
+ */
+public class CheckpointCheck extends Check {
+
+	private static final int width = 50;
+	private static final int height = 40;
+	private static final int tile_size = 16;
+	private static final String settings = "50 40 STANDARD SOBOL 42 16";
+
+	@Override
+	protected void run() throws IOException {
+		File file = File.createTempFile("checkpoint", ".bin");
+		file.delete();
+		try {
+			check(file);
+		} finally {
+			file.delete();
+		}
+	}
+
+	private void check(File file) throws IOException {
+		FrameBuffer buffer = new FrameBuffer(width, height);
+		List<Tile> tiles = new ArrayList<>(buffer.subdivide(tile_size, tile_size));
+		Checkpoint checkpoint = new Checkpoint(file, settings, buffer, tiles, Double.MAX_VALUE);
+		expect(!checkpoint.load(), "a missing checkpoint is resumed");
+
+		// render every tile but the last, each pixel with a few samples of
+		// which some are not finished when the checkpoint is taken
+		Random random = new Random(0);
+		FrameBuffer expected = new FrameBuffer(width, height);
+		for (int t = 0; t < tiles.size(); t++) {
+			Tile tile = tiles.get(t);
+			for (int y = tile.yStart; y < tile.yEnd; y++) {
+				for (int x = tile.xStart; x < tile.xEnd; x++) {
+					int samples = random.nextInt(5);
+					for (int s = 0; s < samples; s++) {
+						double red = 255 * random.nextDouble(), green = 255 * random.nextDouble(),
+								blue = 255 * random.nextDouble();
+						buffer.add(x, y, red, green, blue, 1.0);
+						if (t < tiles.size() - 1) {
+							expected.add(x, y, red, green, blue, 1.0);
+						}
+					}
+				}
+			}
+			if (t < tiles.size() - 1) {
+				checkpoint.finished(tile, 3);
+				// a sample of the next pass, after the tile finished
+				buffer.add(tile.xStart, tile.yStart, 1, 2, 3, 1.0);
+			}
+		}
+		checkpoint.store();
+
+		FrameBuffer resumed = new FrameBuffer(width, height);
+		List<Tile> resumedTiles = new ArrayList<>(resumed.subdivide(tile_size, tile_size));
+		Checkpoint other = new Checkpoint(file, settings, resumed, resumedTiles, Double.MAX_VALUE);
+		expect(other.load(), "the checkpoint is not resumed");
+		for (int t = 0; t < resumedTiles.size(); t++) {
+			int samples = other.getSamples(resumedTiles.get(t));
+			int finished = t < tiles.size() - 1 ? 3 : 0;
+			expect(samples == finished, "tile " + t + " finished " + samples + " samples instead of " + finished);
+		}
+		expect(other.getSamples() == 0, "all tiles finished " + other.getSamples() + " samples");
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				RGBSpectrum a = expected.getSpectrum(x, y), b = resumed.getSpectrum(x, y);
+				boolean same = same(a.red, b.red) && same(a.green, b.green) && same(a.blue, b.blue)
+						&& same(expected.getWeight(x, y), resumed.getWeight(x, y))
+						&& same(expected.getVariance(x, y), resumed.getVariance(x, y))
+						&& same(expected.getRelativeError(x, y), resumed.getRelativeError(x, y));
+				expect(same, "pixel (" + x + ", " + y + ") differs after resuming");
+			}
+		}
+
+		FrameBuffer different = new FrameBuffer(width, height);
+		Checkpoint mismatch = new Checkpoint(file, settings + " 1", different,
+				new ArrayList<>(different.subdivide(tile_size, tile_size)), Double.MAX_VALUE);
+		expect(!mismatch.load(), "a checkpoint of different settings is resumed");
+		expect(different.getSamplesPerPixel() == 0, "a checkpoint which is not resumed changed the buffer");
+
+		try (RandomAccessFile truncated = new RandomAccessFile(file, "rw")) {
+			truncated.setLength(truncated.length() / 2);
+		}
+		try {
+			new Checkpoint(file, settings, different, new ArrayList<>(different.subdivide(tile_size,
+					tile_size)), Double.MAX_VALUE).load();
+			expect(false, "a truncated checkpoint is resumed");
+		} catch (IOException e) {
+			expect(different.getSamplesPerPixel() == 0, "a corrupt checkpoint changed the buffer");
+		}
+	}
+}
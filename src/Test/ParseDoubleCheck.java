@@ -0,0 +1,111 @@
+package Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import shape.ObjFile;
+
+/**
+ * Checks that the numbers of an object file are parsed to the same doubles as
+ * Double.parseDouble, bit for bit, both by the fast path of the parser and by
+ * its fallback.
+ *
+ * The numbers are written as the vertices of a temporary object file, which
+ * is parsed by {@link ObjFile#read(File)}.
+ */
+public class ParseDoubleCheck extends Check {
+
+	private static final String[] edgeCases = {
+			// zeros and signs
+			"0", "-0", "0.0", "-0.0", "+0.0", "-0.000", "+1", "-1",
+			// leading zeros
+			"007", "-007.25", "0000.5", "000000000000000000000000001", "0.000000000000000000000001234",
+			// no integer or no fraction digits
+			".5", "-.5", "5.", "-5.e2",
+			// more than 18 significant digits
+			"1234567890123456789", "1.2345678901234567890123", "123456789012345678901234567890",
+			"0.1000000000000000055511151231257827", "9007199254740993", "9007199254740992",
+			"18014398509481985", "3.14159265358979323846264338327950288",
+			"1.00000000000000000000000000000000001", "0.99999999999999999999999999",
+			// exponents around the exact powers of ten
+			"1e22", "1e23", "1e-22", "1e-23", "9007199254740991e22", "9007199254740991e-22",
+			"123e20", "123e-25", "1.5E+22", "1.5E-22", "4.35e-24", "-7.2e+23",
+			// exponents far out of range
+			"1e308", "1.7976931348623157e308", "1.8e308", "4.9e-324", "2.5e-324", "1e-400",
+			"1e99999", "-1e-99999",
+			// halfway cases and hard roundings
+			"2.2250738585072011e-308", "2.2250738585072012e-308", "0.1", "0.2", "0.3",
+			"9007199254740993.0", "1.00000000000000011102230246251565404236316680908203125",
+	};
+
+	@Override
+	protected void run() throws IOException {
+		List<String> numbers = new ArrayList<>();
+		for (String number : edgeCases) {
+			numbers.add(number);
+		}
+		Random random = new Random(0);
+		for (int i = 0; i < 100000; i++) {
+			numbers.add(getRandomNumber(random));
+		}
+		while (numbers.size() % 3 != 0) {
+			numbers.add("0");
+		}
+
+		File file = File.createTempFile("parse", ".obj");
+		try {
+			try (PrintWriter writer = new PrintWriter(file, "ISO-8859-1")) {
+				for (int i = 0; i < numbers.size(); i += 3) {
+					writer.println("v " + numbers.get(i) + " " + numbers.get(i + 1) + " "
+							+ numbers.get(i + 2));
+				}
+			}
+			double[] parsed = ObjFile.read(file).vertices;
+			if (!expect(parsed.length == numbers.size(), String.format("parsed %d of %d numbers",
+					parsed.length, numbers.size()))) {
+				return;
+			}
+			for (int i = 0; i < parsed.length; i++) {
+				double expected = Double.parseDouble(numbers.get(i));
+				expect(same(parsed[i], expected), String.format("%s: parsed %s, expected %s",
+						numbers.get(i), Double.toString(parsed[i]), Double.toString(expected)));
+			}
+		} finally {
+			file.delete();
+		}
+	}
+
+	/**
+	 * Returns a random decimal number with up to 25 digits, a random position
+	 * of the decimal point, optional leading zeros and an optional exponent
+	 * around the range of the fast path.
+	 */
+	private static String getRandomNumber(Random random) {
+		StringBuilder builder = new StringBuilder();
+		if (random.nextBoolean()) {
+			builder.append(random.nextBoolean() ? '-' : '+');
+		}
+		int zeros = random.nextInt(4) == 0 ? random.nextInt(5) : 0;
+		for (int i = 0; i < zeros; i++) {
+			builder.append('0');
+		}
+		int digits = 1 + random.nextInt(25);
+		int point = random.nextInt(digits + 1);
+		for (int i = 0; i < digits; i++) {
+			if (i == point) {
+				builder.append('.');
+			}
+			builder.append((char) ('0' + random.nextInt(10)));
+		}
+		if (random.nextBoolean()) {
+			builder.append(random.nextBoolean() ? 'e' : 'E');
+			builder.append(random.nextBoolean() ? "-" : "");
+			builder.append(random.nextInt(40));
+		}
+		return builder.toString();
+	}
+}
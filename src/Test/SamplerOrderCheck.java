@@ -0,0 +1,118 @@
+package Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import sampling.Sampler;
+import sampling.SamplerType;
+
+/**
+ * Checks that the samplers are invariant to the order in which the pixels
+ * and their samples are rendered: a sampler visiting the samples of a block
+ * of pixels in a shuffled order, jumping straight to the light dimensions of
+ * a sample as the renderer does, must give the same values bit for bit as a
+ * sampler visiting them in row order.
+ *
+ * It also checks that every value lies in [0, 1) and that, for the
+ * stratified and the Sobol sampler with a square number of samples per
+ * pixel, the samples of a pixel cover every stratum of the pair of
+ * dimensions of an area light exactly once.
+ */
+public class SamplerOrderCheck extends Check {
+
+	private static final int size = 16;
+	private static final int lights = 3;
+	private static final int dimensions = Sampler.getLightDimension(lights);
+	private static final int[] samplesPerPixel = { 1, 7, 16 };
+
+	@Override
+	protected void run() {
+		for (SamplerType type : SamplerType.values()) {
+			for (int spp : samplesPerPixel) {
+				checkOrder(type, spp);
+			}
+			if (type != SamplerType.HALTON) {
+				checkStrata(type, 16);
+			}
+		}
+	}
+
+	private void checkOrder(SamplerType type, int spp) {
+		// every value in row order, from a single sampler
+		Sampler sampler = type.create(42, spp);
+		double[][] expected = new double[size * size * spp][dimensions];
+		for (int y = 0; y < size; y++) {
+			for (int x = 0; x < size; x++) {
+				for (int index = 0; index < spp; index++) {
+					sampler.startSample(x, y, index);
+					double[] values = expected[(y * size + x) * spp + index];
+					for (int d = 0; d < dimensions; d++) {
+						values[d] = sampler.get1D();
+						if (!(values[d] >= 0 && values[d] < 1)) {
+							expect(false, String.format("%s, %d spp: value %s out of [0, 1)", type, spp,
+									Double.toString(values[d])));
+							return;
+						}
+					}
+				}
+			}
+		}
+
+		// the same samples in a shuffled order from another sampler, which
+		// reads the light dimensions before the pixel dimensions
+		List<Integer> order = new ArrayList<>();
+		for (int i = 0; i < expected.length; i++) {
+			order.add(i);
+		}
+		Collections.shuffle(order, new Random(spp));
+		Sampler other = type.create(42, spp);
+		for (int i : order) {
+			int index = i % spp;
+			int pixel = i / spp;
+			other.startSample(pixel % size, pixel / size, index);
+			other.setDimension(Sampler.LIGHT_DIMENSION);
+			double[] values = new double[dimensions];
+			for (int d = Sampler.LIGHT_DIMENSION; d < dimensions; d++) {
+				values[d] = other.get1D();
+			}
+			other.startSample(pixel % size, pixel / size, index);
+			for (int d = 0; d < Sampler.LIGHT_DIMENSION; d++) {
+				values[d] = other.get1D();
+			}
+			for (int d = 0; d < dimensions; d++) {
+				if (!same(values[d], expected[i][d])) {
+					expect(false, String.format("%s, %d spp: pixel (%d, %d), sample %d, "
+							+ "dimension %d depends on the order", type, spp, pixel % size,
+							pixel / size, index, d));
+					return;
+				}
+			}
+		}
+	}
+
+	private void checkStrata(SamplerType type, int spp) {
+		int strata = (int) Math.round(Math.sqrt(spp));
+		Sampler sampler = type.create(7, spp);
+		for (int light = 0; light < lights; light++) {
+			for (int y = 0; y < size; y++) {
+				for (int x = 0; x < size; x++) {
+					boolean[] covered = new boolean[spp];
+					for (int index = 0; index < spp; index++) {
+						sampler.startSample(x, y, index);
+						sampler.setDimension(Sampler.getLightDimension(light));
+						int i = (int) (sampler.get1D() * strata);
+						int j = (int) (sampler.get1D() * strata);
+						if (covered[j * strata + i]) {
+							expect(false, String.format("%s, %d spp: pixel (%d, %d) samples "
+									+ "stratum (%d, %d) of light %d twice", type, spp, x, y, i, j, light));
+							return;
+						}
+						covered[j * strata + i] = true;
+					}
+				}
+			}
+		}
+	}
+}
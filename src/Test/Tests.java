@@ -1,7 +1,31 @@
 package Test;
 
+import java.util.Arrays;
+import java.util.List;
+
 public class Tests {
 
+	/**
+	 * Runs the checks with the given class names, or every check when no name
+	 * is given.
+	 *
+	 * Usage: Tests [check...], exits with status 1 when a check fails.
+	 */
+	public static void main(String[] arguments) {
+		Check[] checks = { new ParseDoubleCheck(), new SamplerOrderCheck(), new CheckpointCheck(),
+				new WatertightCheck() };
+		List<String> names = Arrays.asList(arguments);
+		int failures = 0;
+		for (Check check : checks) {
+			if (names.isEmpty() || names.contains(check.getClass().getSimpleName())) {
+				failures += check.check();
+			}
+		}
+		if (failures > 0) {
+			System.exit(1);
+		}
+	}
+
 	/*@Test
 	public void testBoxIntersection() {
 		Point origin = new Point(0.5, 0.5, -1);
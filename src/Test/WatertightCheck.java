@@ -0,0 +1,107 @@
+package Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Random;
+
+import math.Point;
+import math.Ray;
+import math.Vector;
+import shape.PolygonMesh;
+
+/**
+ * Checks that the watertight triangle test of a {@link PolygonMesh} never
+ * lets a ray slip through a closed mesh: every ray through a shared edge or
+ * vertex of an octahedron, from outside towards the inside and from inside
+ * towards the outside, must hit the octahedron.
+ *
+ * The corners of the octahedron are rotated and scaled at random, so the
+ * points on its edges cannot be represented exactly.
+ */
+public class WatertightCheck extends Check {
+
+	private static final int rays_per_edge = 200;
+
+	/**
+	 * The corners of every face, in counterclockwise order seen from outside,
+	 * with the corners of the octahedron at +x, -x, +y, -y, +z and -z.
+	 */
+	private static final int[][] faces = { { 0, 2, 4 }, { 2, 1, 4 }, { 1, 3, 4 }, { 3, 0, 4 }, { 2, 0, 5 },
+			{ 1, 2, 5 }, { 3, 1, 5 }, { 0, 3, 5 } };
+
+	@Override
+	protected void run() throws IOException {
+		Random random = new Random(0);
+		double[][] corners = corners(random);
+		File file = File.createTempFile("watertight", ".obj");
+		try {
+			try (PrintWriter writer = new PrintWriter(file)) {
+				for (double[] corner : corners) {
+					writer.println("v " + corner[0] + " " + corner[1] + " " + corner[2]);
+				}
+				for (int[] face : faces) {
+					writer.println("f " + (face[0] + 1) + " " + (face[1] + 1) + " " + (face[2] + 1));
+				}
+			}
+			PolygonMesh mesh = new PolygonMesh(file);
+			mesh.setWatertight(true);
+			expect(mesh.getNumberOfTriangles() == faces.length, "the octahedron has "
+					+ mesh.getNumberOfTriangles() + " triangles");
+			check(mesh, corners, random);
+		} finally {
+			file.delete();
+			// the mesh cache, see MeshCache
+			new File(file.getPath() + ".cache").delete();
+		}
+	}
+
+	/**
+	 * Returns the corners of an octahedron around the origin, rotated about a
+	 * random axis and scaled by a random factor.
+	 */
+	private static double[][] corners(Random random) {
+		Vector axis = new Vector(random.nextGaussian(), random.nextGaussian(), random.nextGaussian())
+				.normalize();
+		double angle = 2 * Math.PI * random.nextDouble();
+		double scale = 0.5 + 3 * random.nextDouble();
+		double[][] corners = new double[6][];
+		for (int i = 0; i < 6; i++) {
+			double[] unit = new double[3];
+			unit[i / 2] = i % 2 == 0 ? 1 : -1;
+			Vector v = new Vector(unit[0], unit[1], unit[2]);
+			// Rodrigues' rotation formula
+			Vector rotated = v.scale(Math.cos(angle)).add(axis.cross(v).scale(Math.sin(angle)))
+					.add(axis.scale(axis.dot(v) * (1 - Math.cos(angle)))).scale(scale);
+			corners[i] = new double[] { rotated.x, rotated.y, rotated.z };
+		}
+		return corners;
+	}
+
+	private void check(PolygonMesh mesh, double[][] corners, Random random) {
+		int misses = 0, rays = 0;
+		for (int[] face : faces) {
+			for (int k = 0; k < 3; k++) {
+				double[] a = corners[face[k]], b = corners[face[(k + 1) % 3]];
+				for (int r = 0; r < rays_per_edge; r++) {
+					// the corners themselves, the midpoint and random points
+					double s = r == 0 ? 0 : r == 1 ? 0.5 : random.nextDouble();
+					Point edge = new Point(a[0] + s * (b[0] - a[0]), a[1] + s * (b[1] - a[1]),
+							a[2] + s * (b[2] - a[2]));
+					// within the sphere inscribed in the smallest octahedron
+					Point inside = new Point(0.2 * random.nextDouble() - 0.1, 0.2 * random.nextDouble() - 0.1,
+							0.2 * random.nextDouble() - 0.1);
+					Vector in = inside.subtract(edge);
+					misses += hits(mesh, new Ray(edge.add(in.scale(-2)), in)) ? 0 : 1;
+					misses += hits(mesh, new Ray(inside, in.scale(-1))) ? 0 : 1;
+					rays += 2;
+				}
+			}
+		}
+		expect(misses == 0, misses + " of " + rays + " rays through a shared edge or vertex miss the mesh");
+	}
+
+	private static boolean hits(PolygonMesh mesh, Ray ray) {
+		return mesh.intersects(ray, Double.POSITIVE_INFINITY) && mesh.getIntersection(ray) != null;
+	}
+}
@@ -8,6 +8,7 @@ import math.Ray;
 import math.Transformation;
 import math.Vector;
 import shape.AxisAlignedBox;
+import shape.Hit;
 import shape.Intersection;
 import shape.Shape;
 
@@ -121,45 +122,32 @@ public class BV extends AxisAlignedBox {
 			return null;
 		}
 		
-		Vector o = ray.origin.toVector();
-		Vector dir = ray.direction;
-		double tmin = 0;
-		double tmax = Double.MAX_VALUE;
-		
-		if (dir.x != 0.0) {
-			double tx1 = (leftBottom.x-o.x)/dir.x;
-			double tx2 = (getRightTop().x-o.x)/dir.x;
-			
-			tmin = Math.min(tx1, tx2);
-			tmax = Math.max(tx1, tx2);
-		}
-		
-		if (dir.y != 0.0) {
-			double ty1 = (leftBottom.y-o.y)/dir.y;
-			double ty2 = (getRightTop().y-o.y)/dir.y;
-		
-			tmin = Math.max(tmin, Math.min(ty1, ty2));
-			tmax = Math.min(tmax, Math.max(ty1, ty2));
-		}
-		if (dir.z != 0.0) {
-			double tz1 = (leftBottom.z-o.z)/dir.z;
-			double tz2 = (getRightTop().z-o.z)/dir.z;
-			
-			tmin = Math.max(tmin, Math.min(tz1, tz2));
-			tmax = Math.min(tmax, Math.max(tz1, tz2));
+		Point rightTop = getRightTop();
+		double t = getHitParameter(ray, leftBottom.x, leftBottom.y, leftBottom.z,
+				rightTop.x, rightTop.y, rightTop.z);
+		if (t <= 0) {
+			return null;
 		}
+		Point intersectionPoint = ray.origin.add(ray.direction.scale(t));
+		return new Intersection(intersectionPoint, this, ray, getNormal(intersectionPoint), t);
+	}
+	
+	@Override
+	public boolean intersects(Ray ray, double tMax) {
+		Point rightTop = getRightTop();
+		double t = getHitParameter(ray, leftBottom.x, leftBottom.y, leftBottom.z,
+				rightTop.x, rightTop.y, rightTop.z);
+		return t > 0 && t < tMax;
+	}
 
-		if (tmin <= tmax && tmax > 0) {
-			Point intersectionPoint;
-			if (tmin > 0) {
-				intersectionPoint = ray.origin.add(ray.direction.scale(tmin));
-			} else {
-				intersectionPoint = ray.origin.add(ray.direction.scale(tmax));
-			}
-			return new Intersection(intersectionPoint, this, ray, getNormal(intersectionPoint));
-		}
-		
-		return null;
+	@Override
+	public boolean intersect(Ray ray, Hit hit) {
+		return hit.record(getIntersection(ray), ray);
+	}
+
+	@Override
+	public Intersection getIntersection(Ray ray, Hit hit) {
+		return getIntersection(ray);
 	}
 	
 	public BV getTransformedBV(Transformation transformation) {
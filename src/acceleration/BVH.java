@@ -2,102 +2,318 @@ package acceleration;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
-import acceleration.splitting.MedianSplitter;
 import acceleration.splitting.SAHSplitter;
 import acceleration.splitting.SplitMode;
 import acceleration.splitting.Splitter;
 import math.Point;
+import math.Ray;
 import math.Transformation;
-import shape.BVInstance;
-import shape.MeshTriangle;
+import math.Vector;
+import shape.Hit;
+import shape.Intersection;
+import shape.Shape;
 import shape.ShapeInstance;
 import texture.TransparentTexture;
+import util.IntArrayList;
 import util.Pair;
 
 public class BVH {
 
 	private static final int nb_shapes = 8;
 
-	private static Splitter splitter = SAHSplitter.get(SplitMode.ALL_AXIS);
+	private static final int parallel_cutoff = 1024;
+
+	private static final Splitter splitter = SAHSplitter.get(SplitMode.ALL_AXIS);
+
+	private static final BinnedSAHBuilder binnedBuilder = new BinnedSAHBuilder();
+
+	private static final LBVHBuilder linearBuilder = new LBVHBuilder();
+
+	private static final LBVHBuilder treeletBuilder = new LBVHBuilder(false, true,
+			LBVHBuilder.DEFAULT_MAX_LEAF_SIZE);
+
+	private static BuildMode buildMode = BuildMode.BINNED_SAH;
+
+	private static int width = 2;
+
+	public static BuildMode getBuildMode() {
+		return buildMode;
+	}
+
+	public static void setBuildMode(BuildMode mode) {
+		buildMode = mode;
+	}
+
+	public static int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Sets the number of children per node of the hierarchies returned by
+	 * {@link #collapse(FlatBVH)}.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             when the width is not 2, 4 or 8.
+	 */
+	public static void setWidth(int width) throws IllegalArgumentException {
+		if (width != 2 && width != 4 && width != 8)
+			throw new IllegalArgumentException("the width must be 2, 4 or 8!");
+		BVH.width = width;
+	}
+
+	/**
+	 * Returns the hierarchy to traverse for the given binary hierarchy: the
+	 * hierarchy itself, or the hierarchy collapsed to the current width.
+	 */
+	public static Shape collapse(FlatBVH flat) {
+		if (width == 2) {
+			return flat;
+		}
+		return new WideBVH(flat, width);
+	}
 	
-	@SuppressWarnings("unchecked")
 	public static List<ShapeInstance> createBVH(List<ShapeInstance> wrappers) {
-		List<BVInstance> result = new ArrayList<>();
-		for (ShapeInstance wrapper : wrappers) {
-			BV bv = wrapper.shape.createNewBV();
-			result.add(new BVInstance(bv, wrapper.transformation, wrapper.texture));
-		}
-
-		if (result.size() > nb_shapes) {
-			ShapeInstance superbv = buildSuper(result);
+		if (wrappers.size() > nb_shapes) {
+			ShapeInstance superbv = buildSuper(wrappers);
 			List<ShapeInstance> end_result = new ArrayList<>();
 			end_result.add(superbv);
 			return end_result;
 		}
-		return (List<ShapeInstance>) (List<?>) result;
+		return new ArrayList<>(wrappers);
 	}
 
-	private static BVInstance buildSuper(List<BVInstance> shapes) {
-		Point rightTop = new Point(-Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE);
-		Point leftBottom = new Point(Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE);
-		BV superbv = new BV(leftBottom, rightTop);
-		for (BVInstance bv_inst : shapes) {
-			BV transformed = bv_inst.bv.getTransformedBV(bv_inst.transformation);
-			transformed.addShape(bv_inst);
-			superbv.expand(transformed);
-		}
-		List<BV> toSplit = new ArrayList<>();
-
-		toSplit.add(superbv);
-		while (!toSplit.isEmpty()) {
-			BV parent = toSplit.get(0);
-
-			if (parent.getShapes().size() > nb_shapes) {
-				Pair<BV, BV> children = splitter.split(parent);
-				BV first = children.getFirst();
-				BV second = children.getSecond();
-				
-				if (first.getShapes().size() != 0 && second.getShapes().size() != 0) {
-					parent.clearShapes();
-					parent.addChild(first);
-					parent.addChild(second);
-					toSplit.add(1, first);
-					toSplit.add(1, second);
-				}
+	/**
+	 * Builds the top level of a two-level hierarchy over the given instances.
+	 * The shapes of the instances keep their own hierarchies, so a mesh
+	 * placed many times is only stored and built once.
+	 */
+	private static ShapeInstance buildSuper(List<ShapeInstance> shapes) {
+		FlatBVH superbv = build(new InstanceSet(shapes));
+		return new ShapeInstance(collapse(superbv), Transformation.IDENTITY, TransparentTexture.get());
+	}
+
+	/**
+	 * Returns whether the segment between the given points is blocked by one
+	 * of the given shapes. Hits within a small bias of either end point are
+	 * ignored.
+	 */
+	public static boolean occluded(Point origin, Point target, List<ShapeInstance> shapes) {
+		Vector direction = target.subtract(origin);
+		double selfIntersectionBias = Math.pow(10, -8);
+		Ray ray = new Ray(origin.add(direction.scale(selfIntersectionBias)), direction,
+				1 - 2 * selfIntersectionBias);
+		for (ShapeInstance shape : shapes) {
+			if (shape.intersects(ray, ray.tMax)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns for every given origin whether the segment between that origin
+	 * and the given target is blocked by one of the given shapes, as
+	 * {@link #occluded(Point, Point, List)} does for a single origin. The
+	 * segments are traced together as one packet of rays, which pays off when
+	 * the origins lie close together, such as the points seen through a block
+	 * of pixels. Origins which are null are never occluded.
+	 */
+	public static boolean[] occluded(Point[] origins, Point target, List<ShapeInstance> shapes) {
+		boolean[] occluded = new boolean[origins.length];
+		occluded(origins, target, shapes, new RayPacket(new Ray[origins.length]), occluded);
+		return occluded;
+	}
+
+	/**
+	 * Stores in the given array for every given origin whether the segment
+	 * between that origin and the given target is blocked, as
+	 * {@link #occluded(Point[], Point, List)} does, tracing the segments in
+	 * the given packet instead of a new one.
+	 *
+	 * @throws IllegalArgumentException
+	 *             when the packet or the array is smaller than the number of
+	 *             origins.
+	 */
+	public static void occluded(Point[] origins, Point target, List<ShapeInstance> shapes,
+			RayPacket packet, boolean[] occluded) throws IllegalArgumentException {
+		if (packet.size() < origins.length || occluded.length < origins.length)
+			throw new IllegalArgumentException("the packet cannot hold all origins!");
+		double selfIntersectionBias = Math.pow(10, -8);
+		Ray[] rays = packet.rays;
+		for (int i = 0; i < rays.length; i++) {
+			rays[i] = null;
+			if (i < origins.length && origins[i] != null) {
+				Vector direction = target.subtract(origins[i]);
+				rays[i] = new Ray(origins[i].add(direction.scale(selfIntersectionBias)), direction,
+						1 - 2 * selfIntersectionBias);
 			}
-			toSplit.remove(0);
 		}
-		return new BVInstance(superbv, Transformation.IDENTITY, TransparentTexture.get());
+		packet.reset();
+		for (ShapeInstance shape : shapes) {
+			packet.intersects(shape);
+		}
+		for (int i = 0; i < origins.length; i++) {
+			occluded[i] = packet.isOccluded(i);
+		}
 	}
 
-	public static BV buildBVPolygonMesh(List<MeshTriangle> triangles) {
+	/**
+	 * Builds a hierarchy over the given primitives using the current build
+	 * mode.
+	 */
+	public static FlatBVH build(PrimitiveSet primitives) {
+		switch (buildMode) {
+		case BINNED_SAH:
+			return binnedBuilder.build(primitives);
+		case LBVH:
+			return linearBuilder.build(primitives);
+		case HLBVH:
+			return treeletBuilder.build(primitives);
+		default:
+			break;
+		}
 		Point rightTop = new Point(-Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE);
 		Point leftBottom = new Point(Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE);
 		BV superbv = new BV(leftBottom, rightTop);
-		for (MeshTriangle tri : triangles) {
-			BV newBv = tri.createNewBV();
-			superbv.expand(newBv);
-		}
-		List<BV> toSplit = new ArrayList<>();
-		toSplit.add(superbv);
-		while (!toSplit.isEmpty()) {
-			BV parent = toSplit.get(0);
-			if (parent.getShapes().size() > nb_shapes) {
-				Pair<BV, BV> children = splitter.split(parent);
-				BV first = children.getFirst();
-				BV second = children.getSecond();
-				if (first.getShapes().size() != 0 && second.getShapes().size() != 0) {
-					parent.clearShapes();
-					parent.addChild(first);
-					parent.addChild(second);
-					toSplit.add(1, first);
-					toSplit.add(1, second);
-				}
+		for (int i = 0; i < primitives.size(); i++) {
+			superbv.expand(new PrimitiveShape(primitives, i).createNewBV());
+		}
+		split(superbv);
+		IntArrayList indices = new IntArrayList(primitives.size());
+		BuildNode root = toBuildNode(superbv, indices);
+		return new FlatBVH(root, indices.toArray(), primitives);
+	}
+
+	/**
+	 * Converts a hierarchy of bounding volumes holding primitive shapes,
+	 * appending the indices of the primitives in the order of the leaves.
+	 */
+	private static BuildNode toBuildNode(BV bv, IntArrayList indices) {
+		if (bv.getChildren().isEmpty()) {
+			int start = indices.size();
+			for (Shape shape : bv.getShapes()) {
+				indices.add(((PrimitiveShape) shape).index);
 			}
-			toSplit.remove(0);
+			Point lb = bv.getLeftBottom();
+			Point rt = bv.getRightTop();
+			return new BuildNode(new double[] { lb.x, lb.y, lb.z, rt.x, rt.y, rt.z }, start,
+					indices.size());
 		}
-		return superbv;
+		BuildNode first = toBuildNode(bv.getChildren().get(0), indices);
+		return new BuildNode(first, toBuildNode(bv.getChildren().get(1), indices));
 	}
 
+	/**
+	 * Splits the given bounding volume until every leaf holds at most
+	 * nb_shapes shapes. Subtrees holding more than parallel_cutoff shapes are
+	 * split concurrently in the common fork/join pool.
+	 */
+	private static void split(BV root) {
+		ForkJoinPool.commonPool().invoke(new SplitTask(root, 0));
+	}
+
+	private static class SplitTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final BV parent;
+		private final int depth;
+
+		public SplitTask(BV parent, int depth) {
+			this.parent = parent;
+			this.depth = depth;
+		}
+
+		@Override
+		protected void compute() {
+			int size = parent.getShapes().size();
+			if (size <= nb_shapes) {
+				return;
+			}
+			Pair<BV, BV> children = splitter.split(parent, depth);
+			BV first = children.getFirst();
+			BV second = children.getSecond();
+			if (first.getShapes().size() == 0 || second.getShapes().size() == 0) {
+				return;
+			}
+			parent.clearShapes();
+			parent.addChild(first);
+			parent.addChild(second);
+			SplitTask left = new SplitTask(first, depth + 1);
+			SplitTask right = new SplitTask(second, depth + 1);
+			if (size > parallel_cutoff) {
+				invokeAll(left, right);
+			} else {
+				left.compute();
+				right.compute();
+			}
+		}
+	}
+
+	/**
+	 * A single primitive of a set, as a shape for the splitters.
+	 */
+	private static class PrimitiveShape implements Shape {
+
+		private final PrimitiveSet primitives;
+		private final int index;
+
+		public PrimitiveShape(PrimitiveSet primitives, int index) {
+			this.primitives = primitives;
+			this.index = index;
+		}
+
+		@Override
+		public BV createNewBV() {
+			double[] box = new double[6];
+			primitives.getBounds(index, box, 0);
+			BV bv = new BV(new Point(box[0], box[1], box[2]), new Point(box[3], box[4], box[5]));
+			bv.addShape(this);
+			return bv;
+		}
+
+		@Override
+		public Point getCentric() {
+			return createNewBV().getCentric();
+		}
+
+		@Override
+		public Intersection getIntersection(Ray ray) {
+			Hit hit = new Hit(ray);
+			return intersect(ray, hit) ? getIntersection(ray, hit) : null;
+		}
+
+		@Override
+		public boolean intersect(Ray ray, Hit hit) {
+			return primitives.intersect(index, ray, hit);
+		}
+
+		@Override
+		public Intersection getIntersection(Ray ray, Hit hit) {
+			return primitives.getIntersection(ray, hit);
+		}
+
+		@Override
+		public boolean intersects(Ray ray, double tMax) {
+			return primitives.intersects(index, ray, tMax);
+		}
+
+		@Override
+		public Vector getNormal(Point p) {
+			return null;
+		}
+
+		@Override
+		public boolean isTwoSided() {
+			return false;
+		}
+
+		@Override
+		public Pair<Double, Double> getUV(Point p) {
+			return null;
+		}
+	}
 }
@@ -0,0 +1,216 @@
+package acceleration;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import static acceleration.PrimitiveBounds.clear;
+import static acceleration.PrimitiveBounds.expand;
+import static acceleration.PrimitiveBounds.getHalfSurfaceArea;
+
+/**
+ * Builds a bounding volume hierarchy top-down using the surface area
+ * heuristic evaluated over a fixed number of bins along every axis.
+ *
+ * The builder works on flat arrays of primitive bounds and centroids and
+ * partitions an index array in place. A node is only split when the
+ * estimated cost of traversing it and intersecting both halves is lower than
+ * the cost of intersecting all its primitives. Large subtrees are built
+ * concurrently in the common fork/join pool.
+ */
+public class BinnedSAHBuilder {
+
+	public static final int DEFAULT_NB_BINS = 16;
+	public static final double DEFAULT_TRAVERSAL_COST = 1.0;
+	public static final double DEFAULT_INTERSECTION_COST = 2.0;
+	public static final int DEFAULT_MAX_LEAF_SIZE = 16;
+
+	private static final int MIN_NB_BINS = 2;
+	private static final int MAX_NB_BINS = 64;
+	private static final int parallel_cutoff = 1024;
+
+	private final int nbBins;
+	private final double traversalCost;
+	private final double intersectionCost;
+	private final int maxLeafSize;
+
+	public BinnedSAHBuilder() {
+		this(DEFAULT_NB_BINS, DEFAULT_TRAVERSAL_COST, DEFAULT_INTERSECTION_COST, DEFAULT_MAX_LEAF_SIZE);
+	}
+
+	/**
+	 * @param nbBins
+	 *            the number of bins per axis, between 2 and 64.
+	 * @param traversalCost
+	 *            the cost of testing a node relative to the intersection cost.
+	 * @param intersectionCost
+	 *            the cost of intersecting a single primitive.
+	 * @param maxLeafSize
+	 *            the number of primitives above which a node is always split.
+	 * @throws IllegalArgumentException
+	 *             when the number of bins is out of range or a cost or the
+	 *             maximum leaf size is not positive.
+	 */
+	public BinnedSAHBuilder(int nbBins, double traversalCost, double intersectionCost, int maxLeafSize)
+			throws IllegalArgumentException {
+		if (nbBins < MIN_NB_BINS || nbBins > MAX_NB_BINS)
+			throw new IllegalArgumentException("the number of bins must be between "
+					+ MIN_NB_BINS + " and " + MAX_NB_BINS + "!");
+		if (traversalCost <= 0 || intersectionCost <= 0)
+			throw new IllegalArgumentException("the costs must be larger than zero!");
+		if (maxLeafSize <= 0)
+			throw new IllegalArgumentException("the maximum leaf size must be larger than zero!");
+		this.nbBins = nbBins;
+		this.traversalCost = traversalCost;
+		this.intersectionCost = intersectionCost;
+		this.maxLeafSize = maxLeafSize;
+	}
+
+	public FlatBVH build(PrimitiveSet primitives) {
+		int[] indices = new int[primitives.size()];
+		BuildNode root = build(new PrimitiveBounds(primitives), indices);
+		return new FlatBVH(root, indices, primitives);
+	}
+
+	/**
+	 * Builds a hierarchy over the given primitives, filling the given array
+	 * with their indices in the order of the leaves.
+	 */
+	BuildNode build(PrimitiveBounds primitives, int[] indices) {
+		for (int i = 0; i < indices.length; i++) {
+			indices[i] = i;
+		}
+		return ForkJoinPool.commonPool().invoke(new BuildTask(primitives, indices, 0, indices.length));
+	}
+
+	private class BuildTask extends RecursiveTask<BuildNode> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final PrimitiveBounds primitives;
+		private final double[] bounds;
+		private final double[] centroids;
+		private final int[] indices;
+		private final int start;
+		private final int end;
+
+		public BuildTask(PrimitiveBounds primitives, int[] indices, int start, int end) {
+			this.primitives = primitives;
+			this.bounds = primitives.bounds;
+			this.centroids = primitives.centroids;
+			this.indices = indices;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected BuildNode compute() {
+			int n = end - start;
+			double[] box = new double[6];
+			double[] centroidBox = new double[6];
+			clear(box, 0);
+			clear(centroidBox, 0);
+			for (int i = start; i < end; i++) {
+				int p = indices[i];
+				expand(box, 0, bounds, 6 * p);
+				for (int k = 0; k < 3; k++) {
+					centroidBox[k] = Math.min(centroidBox[k], centroids[3 * p + k]);
+					centroidBox[3 + k] = Math.max(centroidBox[3 + k], centroids[3 * p + k]);
+				}
+			}
+
+			int bestAxis = -1;
+			int bestBin = -1;
+			double bestCost = Double.MAX_VALUE;
+			if (n > 1) {
+				double parentArea = getHalfSurfaceArea(box, 0);
+				int[] counts = new int[nbBins];
+				double[] binBounds = new double[6 * nbBins];
+				double[] rightArea = new double[nbBins];
+				int[] rightCount = new int[nbBins];
+				double[] sweep = new double[6];
+				for (int axis = 0; axis < 3; axis++) {
+					double min = centroidBox[axis];
+					double extent = centroidBox[3 + axis] - min;
+					if (!(extent > 0)) {
+						continue;
+					}
+					double scale = nbBins / extent;
+					for (int b = 0; b < nbBins; b++) {
+						counts[b] = 0;
+						clear(binBounds, 6 * b);
+					}
+					for (int i = start; i < end; i++) {
+						int p = indices[i];
+						int b = getBin(centroids[3 * p + axis], min, scale);
+						counts[b] += 1;
+						expand(binBounds, 6 * b, bounds, 6 * p);
+					}
+					// suffix sweep: bounds and counts of the bins right of every plane
+					clear(sweep, 0);
+					int count = 0;
+					for (int b = nbBins - 1; b > 0; b--) {
+						expand(sweep, 0, binBounds, 6 * b);
+						count += counts[b];
+						rightArea[b] = count == 0 ? 0 : getHalfSurfaceArea(sweep, 0);
+						rightCount[b] = count;
+					}
+					// prefix sweep: evaluate the cost of the plane left of bin b
+					clear(sweep, 0);
+					count = 0;
+					for (int b = 1; b < nbBins; b++) {
+						expand(sweep, 0, binBounds, 6 * (b - 1));
+						count += counts[b - 1];
+						if (count == 0 || rightCount[b] == 0) {
+							continue;
+						}
+						double cost = traversalCost + intersectionCost
+								* (getHalfSurfaceArea(sweep, 0) * count + rightArea[b] * rightCount[b])
+								/ parentArea;
+						if (cost < bestCost) {
+							bestCost = cost;
+							bestAxis = axis;
+							bestBin = b;
+						}
+					}
+				}
+			}
+
+			double leafCost = intersectionCost * n;
+			if (n <= maxLeafSize && (bestAxis == -1 || leafCost <= bestCost)) {
+				return new BuildNode(box, start, end);
+			}
+
+			int middle;
+			if (bestAxis == -1) {
+				// all centroids coincide, split the range in two halves
+				middle = start + n / 2;
+			} else {
+				double min = centroidBox[bestAxis];
+				double scale = nbBins / (centroidBox[3 + bestAxis] - min);
+				middle = start;
+				for (int i = start; i < end; i++) {
+					int p = indices[i];
+					if (getBin(centroids[3 * p + bestAxis], min, scale) < bestBin) {
+						indices[i] = indices[middle];
+						indices[middle] = p;
+						middle += 1;
+					}
+				}
+			}
+
+			BuildTask left = new BuildTask(primitives, indices, start, middle);
+			BuildTask right = new BuildTask(primitives, indices, middle, end);
+			if (n > parallel_cutoff) {
+				right.fork();
+				BuildNode first = left.compute();
+				return new BuildNode(first, right.join());
+			}
+			BuildNode first = left.compute();
+			return new BuildNode(first, right.compute());
+		}
+
+		private int getBin(double centroid, double min, double scale) {
+			return Math.min(nbBins - 1, (int) ((centroid - min) * scale));
+		}
+	}
+}
@@ -0,0 +1,5 @@
+package acceleration;
+
+public enum BuildMode {
+	SPLITTER, BINNED_SAH, LBVH, HLBVH;
+}
@@ -0,0 +1,46 @@
+package acceleration;
+
+/**
+ * A node of a hierarchy under construction. The primitives of a leaf are the
+ * range [start, end) of the index array partitioned by the builder.
+ */
+class BuildNode {
+
+	/**
+	 * The bounds of this node: minx, miny, minz, maxx, maxy, maxz.
+	 */
+	final double[] box;
+	final BuildNode left;
+	final BuildNode right;
+	final int start;
+	final int end;
+
+	/**
+	 * Creates a leaf.
+	 */
+	BuildNode(double[] box, int start, int end) {
+		this.box = box;
+		this.left = null;
+		this.right = null;
+		this.start = start;
+		this.end = end;
+	}
+
+	/**
+	 * Creates an interior node bounding both children.
+	 */
+	BuildNode(BuildNode left, BuildNode right) {
+		this.box = new double[6];
+		PrimitiveBounds.clear(box, 0);
+		PrimitiveBounds.expand(box, 0, left.box, 0);
+		PrimitiveBounds.expand(box, 0, right.box, 0);
+		this.left = left;
+		this.right = right;
+		this.start = -1;
+		this.end = -1;
+	}
+
+	boolean isLeaf() {
+		return left == null;
+	}
+}
@@ -0,0 +1,518 @@
+package acceleration;
+
+import java.nio.ByteBuffer;
+
+import math.Point;
+import math.Ray;
+import math.Vector;
+import shape.Hit;
+import shape.Intersection;
+import shape.Shape;
+import util.Pair;
+
+/**
+ * A bounding volume hierarchy flattened into arrays.
+ *
+ * The nodes are stored in depth-first order: the first child of an interior
+ * node directly follows its parent, the index of the second child is kept in
+ * {@link #offsets}. For a leaf, {@link #offsets} holds the index of its first
+ * primitive and {@link #counts} the number of primitives it contains.
+ *
+ * Closest-hit and shadow queries share one traversal loop which keeps its
+ * nodes on the {@link TraversalStack} of the current thread, visits the child
+ * nearest to the ray origin first and prunes every node beyond the closest
+ * hit found so far. Packets of coherent rays are traced with a traversal of
+ * their own which culls every node against the packet as a whole.
+ */
+public class FlatBVH implements Shape, PacketTraversable {
+
+	/**
+	 * The bounds of every node: minx, miny, minz, maxx, maxy, maxz.
+	 */
+	final double[] bounds;
+	final int[] offsets;
+	final int[] counts;
+	/**
+	 * The axis along which the children of an interior node are separated.
+	 */
+	private final byte[] axes;
+	/**
+	 * The primitives of the leaves, as indices into {@link #set}.
+	 */
+	final int[] primitives;
+	final PrimitiveSet set;
+	private int depth = 0;
+
+	/**
+	 * The smallest number of rays for which a node is culled against a packet
+	 * as a whole before its rays are tested one by one.
+	 */
+	private static final int MIN_CULLED_RAYS = 4;
+
+	/**
+	 * Flattens the given hierarchy. The primitives of a leaf are the given
+	 * range of the given indices into the given set.
+	 */
+	FlatBVH(BuildNode root, int[] indices, PrimitiveSet set) {
+		int nbNodes = countNodes(root);
+		this.bounds = new double[6 * nbNodes];
+		this.offsets = new int[nbNodes];
+		this.counts = new int[nbNodes];
+		this.axes = new byte[nbNodes];
+		this.primitives = new int[indices.length];
+		this.set = set;
+		flatten(root, 0, 1, indices, new int[1]);
+	}
+
+	private FlatBVH(double[] bounds, int[] offsets, int[] counts, byte[] axes, int[] primitives,
+			PrimitiveSet set, int depth) {
+		this.bounds = bounds;
+		this.offsets = offsets;
+		this.counts = counts;
+		this.axes = axes;
+		this.primitives = primitives;
+		this.set = set;
+		this.depth = depth;
+	}
+
+	private static int countNodes(BuildNode node) {
+		if (node.isLeaf()) {
+			return 1;
+		}
+		return 1 + countNodes(node.left) + countNodes(node.right);
+	}
+
+	/**
+	 * Writes the given node at the given index and returns the index of the
+	 * first node following its subtree. The number of primitives written so
+	 * far is kept in the given counter.
+	 */
+	private int flatten(BuildNode node, int index, int level, int[] indices, int[] written) {
+		depth = Math.max(depth, level);
+		System.arraycopy(node.box, 0, bounds, 6 * index, 6);
+		if (node.isLeaf()) {
+			offsets[index] = written[0];
+			counts[index] = node.end - node.start;
+			System.arraycopy(indices, node.start, primitives, written[0], counts[index]);
+			written[0] += counts[index];
+			return index + 1;
+		}
+		axes[index] = (byte) getSeparatingAxis(node.left.box, node.right.box);
+		int secondIndex = flatten(node.left, index + 1, level + 1, indices, written);
+		offsets[index] = secondIndex;
+		return flatten(node.right, secondIndex, level + 1, indices, written);
+	}
+
+	private static int getSeparatingAxis(double[] first, double[] second) {
+		int axis = 0;
+		double largest = -1;
+		for (int k = 0; k < 3; k++) {
+			double difference = Math.abs((second[k] + second[k + 3]) - (first[k] + first[k + 3]));
+			if (difference > largest) {
+				axis = k;
+				largest = difference;
+			}
+		}
+		return axis;
+	}
+
+	public int getNumberOfNodes() {
+		return counts.length;
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * Returns the expected cost of tracing a random ray through this
+	 * hierarchy according to the surface area heuristic: the cost of every
+	 * node weighted by the probability that a ray hitting the root also hits
+	 * that node.
+	 */
+	public double getSAHCost(double traversalCost, double intersectionCost) {
+		double rootArea = getHalfSurfaceArea(0);
+		double cost = 0;
+		for (int node = 0; node < counts.length; node++) {
+			double probability = getHalfSurfaceArea(node) / rootArea;
+			if (counts[node] == 0) {
+				cost += traversalCost * probability;
+			} else {
+				cost += intersectionCost * counts[node] * probability;
+			}
+		}
+		return cost;
+	}
+
+	private double getHalfSurfaceArea(int node) {
+		return PrimitiveBounds.getHalfSurfaceArea(bounds, 6 * node);
+	}
+
+	@Override
+	public Intersection getIntersection(Ray ray) {
+		if (ray == null) {
+			return null;
+		}
+		Hit hit = new Hit(ray);
+		if (!intersect(ray, hit)) {
+			return null;
+		}
+		return set.getIntersection(ray, hit);
+	}
+
+	@Override
+	public Intersection getIntersection(Ray ray, Hit hit) {
+		return set.getIntersection(ray, hit);
+	}
+
+	/**
+	 * Closest-hit query: records the closest primitive hit before the hit
+	 * already recorded, pruning every node beyond it.
+	 */
+	@Override
+	public boolean intersect(Ray ray, Hit hit) {
+		double tMax = hit.t;
+		int negative = ray.signs;
+
+		TraversalStack state = TraversalStack.get();
+		state.ensureCapacity(depth + 1);
+		int[] stack = state.nodes;
+		int base = state.top;
+		int top = base;
+		stack[top++] = 0;
+
+		boolean found = false;
+		int tests = 0;
+		while (top > base) {
+			int node = stack[--top];
+			tests += 1;
+			if (!intersectsBox(node, ray, tMax)) {
+				continue;
+			}
+			if (counts[node] == 0) {
+				// push the far child first so the near child is visited first
+				if (((negative >> axes[node]) & 1) != 0) {
+					stack[top++] = node + 1;
+					stack[top++] = offsets[node];
+				} else {
+					stack[top++] = offsets[node];
+					stack[top++] = node + 1;
+				}
+				continue;
+			}
+			state.top = top;
+			for (int i = offsets[node]; i < offsets[node] + counts[node]; i++) {
+				tests += 1;
+				if (set.intersect(primitives[i], ray, hit)) {
+					tMax = hit.t;
+					found = true;
+				}
+			}
+			// a nested traversal may have grown the stack
+			stack = state.nodes;
+		}
+		state.top = base;
+		state.tests += tests;
+		return found;
+	}
+
+	/**
+	 * Any-hit query: stops at the first primitive hit before tMax. Children
+	 * are visited in storage order since the closest hit is not needed.
+	 */
+	@Override
+	public boolean intersects(Ray ray, double tMax) {
+
+		TraversalStack state = TraversalStack.get();
+		state.ensureCapacity(depth + 1);
+		int[] stack = state.nodes;
+		int base = state.top;
+		int top = base;
+		stack[top++] = 0;
+
+		while (top > base) {
+			int node = stack[--top];
+			if (!intersectsBox(node, ray, tMax)) {
+				continue;
+			}
+			if (counts[node] == 0) {
+				stack[top++] = offsets[node];
+				stack[top++] = node + 1;
+				continue;
+			}
+			state.top = top;
+			for (int i = offsets[node]; i < offsets[node] + counts[node]; i++) {
+				if (set.intersects(primitives[i], ray, tMax)) {
+					state.top = base;
+					return true;
+				}
+			}
+			stack = state.nodes;
+		}
+		state.top = base;
+		return false;
+	}
+
+	@Override
+	public void intersect(RayPacket packet) {
+		traverse(packet, false);
+	}
+
+	@Override
+	public void intersects(RayPacket packet) {
+		traverse(packet, true);
+	}
+
+	/**
+	 * Traverses this hierarchy with the given packet, which is split by the
+	 * signs of its directions first when they differ.
+	 *
+	 * Every stack entry holds a node and the mask of the rays which overlap
+	 * its parent. When the mask holds a few rays, the node is culled against
+	 * the packet as a whole first. Otherwise only the rays of the mask are
+	 * tested against it, so every ray is tested against the same nodes as
+	 * when it is traced alone, while the bounds of a node are loaded once for
+	 * the whole packet. Children are visited in the order of the common signs
+	 * of the directions. For a closest-hit query the packet is culled against
+	 * the farthest hit of its rays, for an any-hit query against the largest
+	 * maximum ray parameter of the rays which are not occluded yet.
+	 */
+	private void traverse(RayPacket packet, boolean anyHit) {
+		if (!packet.isCoherent()) {
+			for (RayPacket part : packet.split()) {
+				traverse(part, anyHit);
+			}
+			return;
+		}
+		Ray[] rays = packet.rays;
+		Hit[] hits = packet.hits;
+		int negative = packet.signs;
+		long active = 0;
+		for (long mask = packet.mask; mask != 0; mask &= mask - 1) {
+			int i = Long.numberOfTrailingZeros(mask);
+			if (!(anyHit && packet.occluded[i])) {
+				active |= 1L << i;
+			}
+		}
+		double tMax = getMaximum(packet, active, anyHit);
+
+		TraversalStack state = TraversalStack.get();
+		state.ensureCapacity(3 * (depth + 1));
+		int[] stack = state.nodes;
+		int base = state.top;
+		int top = base;
+		stack[top++] = 0;
+		stack[top++] = (int) active;
+		stack[top++] = (int) (active >>> 32);
+
+		int tests = 0;
+		while (top > base) {
+			long parent = (stack[--top] & 0xffffffffL) << 32;
+			parent |= stack[--top] & 0xffffffffL;
+			int node = stack[--top];
+			tests += 1;
+			if (Long.bitCount(parent) >= MIN_CULLED_RAYS && packet.missesBox(bounds, 6 * node, tMax)) {
+				continue;
+			}
+			long mask = 0;
+			for (; parent != 0; parent &= parent - 1) {
+				int i = Long.numberOfTrailingZeros(parent);
+				tests += 1;
+				if (packet.isActive(i, anyHit)
+						&& intersectsBox(node, rays[i], anyHit ? rays[i].tMax : hits[i].t)) {
+					mask |= 1L << i;
+				}
+			}
+			if (mask == 0) {
+				continue;
+			}
+			if (counts[node] == 0) {
+				// push the far child first so the near child is visited first
+				int near = node + 1, far = offsets[node];
+				if (((negative >> axes[node]) & 1) != 0) {
+					near = offsets[node];
+					far = node + 1;
+				}
+				stack[top++] = far;
+				stack[top++] = (int) mask;
+				stack[top++] = (int) (mask >>> 32);
+				stack[top++] = near;
+				stack[top++] = (int) mask;
+				stack[top++] = (int) (mask >>> 32);
+				continue;
+			}
+			state.top = top;
+			for (int i = offsets[node]; i < offsets[node] + counts[node]; i++) {
+				tests += 1;
+				if (anyHit) {
+					set.intersects(primitives[i], packet, mask);
+				} else {
+					set.intersect(primitives[i], packet, mask);
+				}
+			}
+			// a nested traversal may have grown the stack
+			stack = state.nodes;
+			tMax = getMaximum(packet, active, anyHit);
+		}
+		state.top = base;
+		state.tests += tests;
+	}
+
+	/**
+	 * Returns the largest ray parameter up to which one of the given rays of
+	 * the given packet is still looking for hits, or negative infinity when
+	 * none is.
+	 */
+	private static double getMaximum(RayPacket packet, long rays, boolean anyHit) {
+		double tMax = Double.NEGATIVE_INFINITY;
+		for (; rays != 0; rays &= rays - 1) {
+			int i = Long.numberOfTrailingZeros(rays);
+			if (packet.isActive(i, anyHit)) {
+				tMax = Math.max(tMax, anyHit ? packet.rays[i].tMax : packet.hits[i].t);
+			}
+		}
+		return tMax;
+	}
+
+	/**
+	 * Returns whether the given ray overlaps the bounds of the given node
+	 * between zero and the given maximum. The interval [tNear, tFar] is
+	 * clipped by the near and the far plane of every slab, which follow from
+	 * the sign of the direction. An axis-parallel ray starting in a plane of
+	 * the bounds yields NaN for that plane, which the comparisons ignore, so
+	 * such a ray is never culled.
+	 */
+	private boolean intersectsBox(int node, Ray ray, double tMax) {
+		return intersectsBox(bounds, 6 * node, ray, tMax);
+	}
+
+	/**
+	 * Returns whether the given ray overlaps the box starting at the given
+	 * offset of the given bounds between zero and the given maximum, as
+	 * {@link #intersectsBox(int, Ray, double)} does for a node.
+	 */
+	static boolean intersectsBox(double[] bounds, int b, Ray ray, double tMax) {
+		int signs = ray.signs;
+		double ox = ray.origin.x, oy = ray.origin.y, oz = ray.origin.z;
+		double tNear = 0;
+		double tFar = tMax;
+		double near = (bounds[b + 3 * (signs & 1)] - ox) * ray.invX;
+		double far = (bounds[b + 3 - 3 * (signs & 1)] - ox) * ray.invX;
+		if (near > tNear) tNear = near;
+		if (far < tFar) tFar = far;
+		near = (bounds[b + 1 + 3 * ((signs >> 1) & 1)] - oy) * ray.invY;
+		far = (bounds[b + 4 - 3 * ((signs >> 1) & 1)] - oy) * ray.invY;
+		if (near > tNear) tNear = near;
+		if (far < tFar) tFar = far;
+		near = (bounds[b + 2 + 3 * (signs >> 2)] - oz) * ray.invZ;
+		far = (bounds[b + 5 - 3 * (signs >> 2)] - oz) * ray.invZ;
+		if (near > tNear) tNear = near;
+		if (far < tFar) tFar = far;
+		return tNear <= tFar;
+	}
+
+	/**
+	 * Returns the number of bytes written by {@link #write(ByteBuffer)}.
+	 */
+	public int getSerializedSize() {
+		return 12 + counts.length * (6 * 8 + 4 + 4 + 1) + primitives.length * 4;
+	}
+
+	/**
+	 * Writes the nodes and the primitive indices of this hierarchy to the
+	 * given buffer.
+	 */
+	public void write(ByteBuffer buffer) {
+		buffer.putInt(counts.length);
+		buffer.putInt(primitives.length);
+		buffer.putInt(depth);
+		buffer.asDoubleBuffer().put(bounds);
+		buffer.position(buffer.position() + 8 * bounds.length);
+		buffer.asIntBuffer().put(offsets);
+		buffer.position(buffer.position() + 4 * offsets.length);
+		buffer.asIntBuffer().put(counts);
+		buffer.position(buffer.position() + 4 * counts.length);
+		buffer.put(axes);
+		buffer.asIntBuffer().put(primitives);
+		buffer.position(buffer.position() + 4 * primitives.length);
+	}
+
+	/**
+	 * Reads a hierarchy written by {@link #write(ByteBuffer)} from the given
+	 * buffer over the given primitives.
+	 *
+	 * @throws IllegalArgumentException
+	 *             when the buffer refers to a primitive which is not in the
+	 *             given set.
+	 */
+	public static FlatBVH read(ByteBuffer buffer, PrimitiveSet set)
+			throws IllegalArgumentException {
+		int nbNodes = buffer.getInt();
+		int nbPrimitives = buffer.getInt();
+		int depth = buffer.getInt();
+		double[] bounds = new double[6 * nbNodes];
+		buffer.asDoubleBuffer().get(bounds);
+		buffer.position(buffer.position() + 8 * bounds.length);
+		int[] offsets = new int[nbNodes];
+		buffer.asIntBuffer().get(offsets);
+		buffer.position(buffer.position() + 4 * nbNodes);
+		int[] counts = new int[nbNodes];
+		buffer.asIntBuffer().get(counts);
+		buffer.position(buffer.position() + 4 * nbNodes);
+		byte[] axes = new byte[nbNodes];
+		buffer.get(axes);
+		int[] primitives = new int[nbPrimitives];
+		buffer.asIntBuffer().get(primitives);
+		buffer.position(buffer.position() + 4 * nbPrimitives);
+		for (int primitive : primitives) {
+			if (primitive < 0 || primitive >= set.size())
+				throw new IllegalArgumentException("the hierarchy refers to an unknown primitive!");
+		}
+		return new FlatBVH(bounds, offsets, counts, axes, primitives, set, depth);
+	}
+
+	/**
+	 * Resets the number of node and primitive tests performed by the current
+	 * thread.
+	 */
+	public static void resetTestCount() {
+		TraversalStack.get().tests = 0;
+	}
+
+	/**
+	 * Returns the number of node and primitive tests performed by the current
+	 * thread since the last reset.
+	 */
+	public static int getTestCount() {
+		return TraversalStack.get().tests;
+	}
+
+	@Override
+	public Vector getNormal(Point p) {
+		return null;
+	}
+
+	@Override
+	public boolean isTwoSided() {
+		return false;
+	}
+
+	@Override
+	public Point getCentric() {
+		return new Point((bounds[0] + bounds[3]) / 2, (bounds[1] + bounds[4]) / 2,
+				(bounds[2] + bounds[5]) / 2);
+	}
+
+	@Override
+	public BV createNewBV() {
+		BV bv = new BV(new Point(bounds[0], bounds[1], bounds[2]),
+				new Point(bounds[3], bounds[4], bounds[5]));
+		bv.addShape(this);
+		return bv;
+	}
+
+	@Override
+	public Pair<Double, Double> getUV(Point p) {
+		return null;
+	}
+}
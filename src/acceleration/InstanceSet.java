@@ -0,0 +1,200 @@
+package acceleration;
+
+import java.util.List;
+
+import math.Matrix;
+import math.Point;
+import math.Ray;
+import math.Vector;
+import shape.Hit;
+import shape.Intersection;
+import shape.ShapeInstance;
+
+/**
+ * The primitive set of the top level of a two-level hierarchy: a list of
+ * shape instances, each referring to a shape with its own bottom-level
+ * hierarchy which may be shared by many instances.
+ *
+ * The world bounds and the affine transformation from world to object space
+ * of every instance are computed once, as rows of a 3 x 4 matrix, so a ray
+ * entering an instance is transformed with twelve multiplications and
+ * without touching the matrices of the transformation.
+ */
+class InstanceSet implements PrimitiveSet {
+
+	/**
+	 * The smallest number of rays of a packet entering an instance which are
+	 * traced through the instance as a packet instead of one by one.
+	 */
+	private static final int MIN_PACKET_SIZE = 16;
+
+	private final ShapeInstance[] instances;
+	/**
+	 * The bounds of every instance in world space, six values per instance.
+	 */
+	private final double[] bounds;
+	/**
+	 * The top three rows of the inverse transformation of every instance,
+	 * twelve values per instance in row-major order.
+	 */
+	private final double[] toObject;
+
+	InstanceSet(List<ShapeInstance> instances) {
+		this.instances = instances.toArray(new ShapeInstance[instances.size()]);
+		this.bounds = new double[6 * this.instances.length];
+		this.toObject = new double[12 * this.instances.length];
+		for (int i = 0; i < this.instances.length; i++) {
+			ShapeInstance instance = this.instances[i];
+			Matrix inverse = instance.transformation.getInverseTransformationMatrix();
+			for (int row = 0; row < 3; row++) {
+				for (int column = 0; column < 4; column++) {
+					toObject[12 * i + 4 * row + column] = inverse.get(row, column);
+				}
+			}
+			computeBounds(instance, i);
+		}
+	}
+
+	/**
+	 * Computes the world bounds of the given instance from the eight corners
+	 * of the bounds of its shape.
+	 */
+	private void computeBounds(ShapeInstance instance, int index) {
+		BV local = instance.shape.createNewBV();
+		Point lb = local.getLeftBottom();
+		Point rt = local.getRightTop();
+		double[] point = new double[3];
+		int b = 6 * index;
+		PrimitiveBounds.clear(bounds, b);
+		for (int corner = 0; corner < 8; corner++) {
+			instance.transformation.transformPoint((corner & 1) == 0 ? lb.x : rt.x,
+					(corner & 2) == 0 ? lb.y : rt.y, (corner & 4) == 0 ? lb.z : rt.z, point, 0);
+			for (int k = 0; k < 3; k++) {
+				bounds[b + k] = Math.min(bounds[b + k], point[k]);
+				bounds[b + 3 + k] = Math.max(bounds[b + 3 + k], point[k]);
+			}
+		}
+	}
+
+	@Override
+	public int size() {
+		return instances.length;
+	}
+
+	@Override
+	public void getBounds(int primitive, double[] box, int offset) {
+		System.arraycopy(bounds, 6 * primitive, box, offset, 6);
+	}
+
+	@Override
+	public boolean intersect(int primitive, Ray ray, Hit hit) {
+		if (instances[primitive].shape.intersect(toObject(primitive, ray), hit)) {
+			hit.instance = primitive;
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public Intersection getIntersection(Ray ray, Hit hit) {
+		return instances[hit.instance].getIntersection(ray, toObject(hit.instance, ray), hit);
+	}
+
+	@Override
+	public boolean intersects(int primitive, Ray ray, double tMax) {
+		// ray parameters are preserved by the transformation
+		return instances[primitive].shape.intersects(toObject(primitive, ray), tMax);
+	}
+
+	/**
+	 * Traces the given rays of the given packet which overlap the bounds of
+	 * the given instance through its shape, as a packet in the object space
+	 * of the instance when there are enough of them.
+	 */
+	@Override
+	public void intersect(int primitive, RayPacket packet, long rays) {
+		rays = getOverlapping(primitive, packet, rays, false);
+		if (Long.bitCount(rays) < MIN_PACKET_SIZE) {
+			for (; rays != 0; rays &= rays - 1) {
+				int i = Long.numberOfTrailingZeros(rays);
+				intersect(primitive, packet.rays[i], packet.hits[i]);
+			}
+			return;
+		}
+		double[] previous = new double[packet.size()];
+		for (long mask = rays; mask != 0; mask &= mask - 1) {
+			int i = Long.numberOfTrailingZeros(mask);
+			previous[i] = packet.hits[i].t;
+		}
+		toObject(primitive, packet, rays).intersect(instances[primitive].shape);
+		for (long mask = rays; mask != 0; mask &= mask - 1) {
+			int i = Long.numberOfTrailingZeros(mask);
+			if (packet.hits[i].t < previous[i]) {
+				packet.hits[i].instance = primitive;
+			}
+		}
+	}
+
+	@Override
+	public void intersects(int primitive, RayPacket packet, long rays) {
+		rays = getOverlapping(primitive, packet, rays, true);
+		if (Long.bitCount(rays) < MIN_PACKET_SIZE) {
+			for (; rays != 0; rays &= rays - 1) {
+				int i = Long.numberOfTrailingZeros(rays);
+				Ray ray = packet.rays[i];
+				if (intersects(primitive, ray, ray.tMax)) {
+					packet.occluded[i] = true;
+				}
+			}
+			return;
+		}
+		toObject(primitive, packet, rays).intersects(instances[primitive].shape);
+	}
+
+	/**
+	 * Returns the mask of the given active rays of the given packet which
+	 * overlap the world bounds of the given instance.
+	 */
+	private long getOverlapping(int primitive, RayPacket packet, long rays, boolean anyHit) {
+		long overlapping = 0;
+		for (; rays != 0; rays &= rays - 1) {
+			int i = Long.numberOfTrailingZeros(rays);
+			Ray ray = packet.rays[i];
+			if (packet.isActive(i, anyHit) && FlatBVH.intersectsBox(bounds, 6 * primitive, ray,
+					anyHit ? ray.tMax : packet.hits[i].t)) {
+				overlapping |= 1L << i;
+			}
+		}
+		return overlapping;
+	}
+
+	/**
+	 * Returns the packet of the given rays of the given packet in the object
+	 * space of the given instance.
+	 */
+	private RayPacket toObject(int primitive, RayPacket packet, long rays) {
+		Ray[] local = new Ray[packet.size()];
+		for (long mask = rays; mask != 0; mask &= mask - 1) {
+			int i = Long.numberOfTrailingZeros(mask);
+			local[i] = toObject(primitive, packet.rays[i]);
+		}
+		return new RayPacket(local, packet.hits, packet.occluded, rays);
+	}
+
+	/**
+	 * Transforms the given ray to the object space of the given instance.
+	 */
+	private Ray toObject(int primitive, Ray ray) {
+		double[] m = toObject;
+		int i = 12 * primitive;
+		Point o = ray.origin;
+		Vector d = ray.direction;
+		Point origin = new Point(m[i] * o.x + m[i + 1] * o.y + m[i + 2] * o.z + m[i + 3],
+				m[i + 4] * o.x + m[i + 5] * o.y + m[i + 6] * o.z + m[i + 7],
+				m[i + 8] * o.x + m[i + 9] * o.y + m[i + 10] * o.z + m[i + 11]);
+		Vector direction = new Vector(m[i] * d.x + m[i + 1] * d.y + m[i + 2] * d.z,
+				m[i + 4] * d.x + m[i + 5] * d.y + m[i + 6] * d.z,
+				m[i + 8] * d.x + m[i + 9] * d.y + m[i + 10] * d.z);
+		return new Ray(origin, direction, ray.tMax);
+	}
+}
@@ -0,0 +1,47 @@
+package acceleration;
+
+import java.lang.reflect.Method;
+
+import math.Ray;
+
+/**
+ * Tests a ray against the bounds of all children of a node of a
+ * {@link WideBVH} at once, with one lane of a vector register per child.
+ *
+ * The vector implementation, {@link VectorLaneTest}, uses the incubating
+ * jdk.incubator.vector module, which is only resolved when the virtual
+ * machine is started with --add-modules jdk.incubator.vector. It is therefore
+ * only loaded through reflection, so the hierarchy falls back to its scalar
+ * loop over the children when the module is missing.
+ */
+abstract class LaneTest {
+
+	/**
+	 * Tests the given ray against the bounds of the first n children of the
+	 * node whose lanes start at the given offset, as the scalar loop of
+	 * {@link WideBVH} does, and stores the entry distance of the ray into
+	 * every child in the given array.
+	 *
+	 * @return the mask of the children the ray overlaps before tMax: bit i is
+	 *         set for child i.
+	 */
+	abstract long test(double[] lanes, int node, int n, Ray ray, double tMax, double[] entries);
+
+	/**
+	 * Returns a lane test for nodes of the given width, or null when the
+	 * vector module is not available or has no vector of that many doubles
+	 * which the processor supports.
+	 */
+	static LaneTest create(int width) {
+		try {
+			Class<?> type = Class.forName("acceleration.VectorLaneTest");
+			Method create = type.getDeclaredMethod("create", int.class);
+			return (LaneTest) create.invoke(null, width);
+		} catch (ReflectiveOperationException e) {
+			return null;
+		} catch (LinkageError e) {
+			// the class is compiled, but the module is not resolved
+			return null;
+		}
+	}
+}
@@ -0,0 +1,22 @@
+package acceleration;
+
+/**
+ * A shape which traces a {@link RayPacket} as a whole instead of ray by ray.
+ * Shapes which do not implement this interface are traced ray by ray by
+ * {@link RayPacket#intersect(shape.Shape)} and
+ * {@link RayPacket#intersects(shape.Shape)}.
+ */
+public interface PacketTraversable {
+
+	/**
+	 * Records for every active ray of the given packet the closest hit with
+	 * this shape before the hit recorded so far.
+	 */
+	public void intersect(RayPacket packet);
+
+	/**
+	 * Marks every active ray of the given packet which hits this shape before
+	 * its maximum ray parameter as occluded.
+	 */
+	public void intersects(RayPacket packet);
+}
@@ -0,0 +1,64 @@
+package acceleration;
+
+/**
+ * The bounds and centroids of a set of primitives, stored in flat arrays for
+ * the array based builders.
+ */
+class PrimitiveBounds {
+
+	/**
+	 * The bounds of every primitive: minx, miny, minz, maxx, maxy, maxz.
+	 */
+	final double[] bounds;
+
+	/**
+	 * The centre of the bounds of every primitive.
+	 */
+	final double[] centroids;
+
+	PrimitiveBounds(PrimitiveSet primitives) {
+		this(getBounds(primitives));
+	}
+
+	PrimitiveBounds(double[] bounds) {
+		int n = bounds.length / 6;
+		this.bounds = bounds;
+		this.centroids = new double[3 * n];
+		for (int i = 0; i < n; i++) {
+			for (int k = 0; k < 3; k++) {
+				centroids[3 * i + k] = (bounds[6 * i + k] + bounds[6 * i + 3 + k]) / 2;
+			}
+		}
+	}
+
+	private static double[] getBounds(PrimitiveSet primitives) {
+		double[] bounds = new double[6 * primitives.size()];
+		for (int i = 0; i < primitives.size(); i++) {
+			primitives.getBounds(i, bounds, 6 * i);
+		}
+		return bounds;
+	}
+
+	int size() {
+		return centroids.length / 3;
+	}
+
+	static void clear(double[] box, int offset) {
+		box[offset] = box[offset + 1] = box[offset + 2] = Double.POSITIVE_INFINITY;
+		box[offset + 3] = box[offset + 4] = box[offset + 5] = Double.NEGATIVE_INFINITY;
+	}
+
+	static void expand(double[] box, int offset, double[] other, int otherOffset) {
+		for (int k = 0; k < 3; k++) {
+			box[offset + k] = Math.min(box[offset + k], other[otherOffset + k]);
+			box[offset + 3 + k] = Math.max(box[offset + 3 + k], other[otherOffset + 3 + k]);
+		}
+	}
+
+	static double getHalfSurfaceArea(double[] box, int offset) {
+		double dx = box[offset + 3] - box[offset];
+		double dy = box[offset + 4] - box[offset + 1];
+		double dz = box[offset + 5] - box[offset + 2];
+		return dx * dy + dy * dz + dz * dx;
+	}
+}
@@ -0,0 +1,57 @@
+package acceleration;
+
+import math.Ray;
+import shape.Hit;
+import shape.Intersection;
+
+/**
+ * A set of primitives identified by their index, such as the triangles of a
+ * mesh. A {@link FlatBVH} refers to its primitives by index and only asks the
+ * set to intersect them, so primitives need not be objects of their own.
+ */
+public interface PrimitiveSet {
+
+	/**
+	 * Returns the number of primitives in this set.
+	 */
+	public int size();
+
+	/**
+	 * Writes the bounds of the given primitive to the given array as minx,
+	 * miny, minz, maxx, maxy, maxz starting at the given offset.
+	 */
+	public void getBounds(int primitive, double[] box, int offset);
+
+	/**
+	 * Records the hit of the given ray with the given primitive in the given
+	 * hit when it is closer than the hit recorded so far, and returns whether
+	 * the hit was updated.
+	 */
+	public boolean intersect(int primitive, Ray ray, Hit hit);
+
+	/**
+	 * Returns the intersection for the given hit, recorded by
+	 * {@link #intersect(int, Ray, Hit)} for the given ray.
+	 */
+	public Intersection getIntersection(Ray ray, Hit hit);
+
+	/**
+	 * Returns whether the given ray hits the given primitive at a ray
+	 * parameter smaller than the given maximum.
+	 */
+	public boolean intersects(int primitive, Ray ray, double tMax);
+
+	/**
+	 * Records the hits of the given rays of the given packet with the given
+	 * primitive as {@link #intersect(int, Ray, Hit)} does for a single ray.
+	 * Bit i of the given mask is set when ray i is to be tested.
+	 */
+	public void intersect(int primitive, RayPacket packet, long rays);
+
+	/**
+	 * Marks the given rays of the given packet which hit the given primitive
+	 * before their maximum ray parameter as occluded. Bit i of the given mask
+	 * is set when ray i is to be tested.
+	 */
+	public void intersects(int primitive, RayPacket packet, long rays);
+}
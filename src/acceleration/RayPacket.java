@@ -0,0 +1,338 @@
+package acceleration;
+
+import math.Ray;
+import math.Transformation;
+import shape.Hit;
+import shape.Shape;
+
+/**
+ * A packet of at most {@link #MAX_SIZE} coherent rays, such as the primary
+ * rays through a block of pixels or the shadow rays from those pixels towards
+ * a point light, which are traced through a hierarchy together.
+ *
+ * Every ray has its own {@link Hit} for closest-hit queries and its own
+ * occlusion flag for any-hit queries. A ray may be null, in which case it is
+ * inactive and ignored by all queries.
+ *
+ * Packets derived from a packet, such as the rays transformed to the object
+ * space of an instance, keep the indices of their rays and share the hits
+ * and the occlusion flags of the packet they were derived from, so the
+ * results of a query on a derived packet need not be copied back.
+ *
+ * A {@link FlatBVH} culls its nodes against the packet as a whole with
+ * interval arithmetic over the bounds of the origins and of the reciprocal
+ * directions of the rays. These bounds are computed when the packet is
+ * created, and again by {@link #reset()} when the rays of a packet are
+ * replaced, so one packet can trace the blocks of a tile one after the other.
+ */
+public class RayPacket {
+
+	/**
+	 * The maximum number of rays in a packet, so a set of rays of a packet
+	 * fits the bits of a long.
+	 */
+	public static final int MAX_SIZE = 64;
+
+	final Ray[] rays;
+	final Hit[] hits;
+	final boolean[] occluded;
+
+	/**
+	 * The mask of the rays which are not null: bit i is set for ray i.
+	 */
+	long mask;
+
+	/**
+	 * The bounds of the origins and of the reciprocal directions of the
+	 * active rays: minx, miny, minz, maxx, maxy, maxz.
+	 */
+	final double[] origins = new double[6];
+	final double[] inverses = new double[6];
+
+	/**
+	 * The common signs of the directions of the active rays as in
+	 * {@link Ray#signs}, or -1 when the signs differ.
+	 */
+	int signs;
+
+	/**
+	 * Creates a new packet of the given rays, with an empty hit for every
+	 * ray. The packet keeps the given array, see {@link #reset()}.
+	 *
+	 * @param rays
+	 *            the rays of this packet. Rays which are null are inactive.
+	 * @throws NullPointerException
+	 *             when the given array is null.
+	 * @throws IllegalArgumentException
+	 *             when more than {@link #MAX_SIZE} rays are given.
+	 */
+	public RayPacket(Ray[] rays) throws NullPointerException, IllegalArgumentException {
+		this(rays, new Hit[checkSize(rays).length], new boolean[rays.length], getMask(rays));
+		for (int i = 0; i < rays.length; i++) {
+			if (rays[i] != null) {
+				hits[i] = new Hit(rays[i]);
+			}
+		}
+	}
+
+	/**
+	 * Creates a packet of the given rays sharing the given hits and occlusion
+	 * flags, where the given mask holds the rays which are not null.
+	 */
+	RayPacket(Ray[] rays, Hit[] hits, boolean[] occluded, long mask) {
+		this.rays = rays;
+		this.hits = hits;
+		this.occluded = occluded;
+		bound(mask);
+	}
+
+	/**
+	 * Takes the rays which are now in the array this packet was created
+	 * with, with an empty hit and no occlusion for every ray. The hits are
+	 * reused, so the hits of the old rays are lost.
+	 */
+	public void reset() {
+		long mask = getMask(rays);
+		for (int i = 0; i < rays.length; i++) {
+			occluded[i] = false;
+			if (rays[i] == null) {
+				continue;
+			}
+			if (hits[i] == null) {
+				hits[i] = new Hit(rays[i]);
+			} else {
+				hits[i].reset(rays[i]);
+			}
+		}
+		bound(mask);
+	}
+
+	/**
+	 * Computes the bounds and the common signs of the rays in the given mask.
+	 */
+	private void bound(long mask) {
+		this.mask = mask;
+		PrimitiveBounds.clear(origins, 0);
+		PrimitiveBounds.clear(inverses, 0);
+		int common = -1;
+		for (; mask != 0; mask &= mask - 1) {
+			Ray ray = rays[Long.numberOfTrailingZeros(mask)];
+			if (common == -1) {
+				common = ray.signs;
+			} else if (common != ray.signs) {
+				common = -2;
+			}
+			include(origins, ray.origin.x, ray.origin.y, ray.origin.z);
+			include(inverses, ray.invX, ray.invY, ray.invZ);
+		}
+		this.signs = common < 0 ? -1 : common;
+	}
+
+	private static Ray[] checkSize(Ray[] rays) throws IllegalArgumentException {
+		if (rays.length > MAX_SIZE)
+			throw new IllegalArgumentException("a packet holds at most " + MAX_SIZE + " rays!");
+		return rays;
+	}
+
+	private static long getMask(Ray[] rays) {
+		long mask = 0;
+		for (int i = 0; i < rays.length; i++) {
+			if (rays[i] != null) {
+				mask |= 1L << i;
+			}
+		}
+		return mask;
+	}
+
+	private static void include(double[] box, double x, double y, double z) {
+		box[0] = Math.min(box[0], x);
+		box[1] = Math.min(box[1], y);
+		box[2] = Math.min(box[2], z);
+		box[3] = Math.max(box[3], x);
+		box[4] = Math.max(box[4], y);
+		box[5] = Math.max(box[5], z);
+	}
+
+	/**
+	 * Returns the number of rays in this packet, including the inactive ones.
+	 */
+	public int size() {
+		return rays.length;
+	}
+
+	public Ray getRay(int index) {
+		return rays[index];
+	}
+
+	/**
+	 * Returns the closest hit recorded for the given ray. The hit of an
+	 * inactive ray is null or left over from an earlier ray.
+	 */
+	public Hit getHit(int index) {
+		return hits[index];
+	}
+
+	/**
+	 * Returns whether an any-hit query found a hit for the given ray.
+	 */
+	public boolean isOccluded(int index) {
+		return occluded[index];
+	}
+
+	/**
+	 * Marks the given ray as occluded.
+	 */
+	public void occlude(int index) {
+		occluded[index] = true;
+	}
+
+	/**
+	 * Returns whether the given ray takes part in a query: it is not null and,
+	 * for an any-hit query, not occluded yet.
+	 */
+	boolean isActive(int index, boolean anyHit) {
+		return rays[index] != null && !(anyHit && occluded[index]);
+	}
+
+	/**
+	 * Returns whether the directions of all active rays have the same signs,
+	 * so that every ray enters a box through the same planes.
+	 */
+	boolean isCoherent() {
+		return signs != -1;
+	}
+
+	/**
+	 * Returns a packet of the active rays of this packet transformed by the
+	 * inverse of the given transformation, sharing the hits and the
+	 * occlusion flags of this packet.
+	 *
+	 * @throws NullPointerException
+	 *             when the given transformation is null.
+	 */
+	public RayPacket transformInverse(Transformation transformation)
+			throws NullPointerException {
+		Ray[] local = new Ray[rays.length];
+		long active = 0;
+		for (long m = mask; m != 0; m &= m - 1) {
+			int i = Long.numberOfTrailingZeros(m);
+			if (!occluded[i]) {
+				local[i] = transformation.transformInverse(rays[i]);
+				active |= 1L << i;
+			}
+		}
+		return new RayPacket(local, hits, occluded, active);
+	}
+
+	/**
+	 * Splits this packet into packets whose directions have the same signs,
+	 * sharing the hits and the occlusion flags of this packet.
+	 */
+	RayPacket[] split() {
+		Ray[][] octants = new Ray[8][];
+		long[] masks = new long[8];
+		int count = 0;
+		for (long m = mask; m != 0; m &= m - 1) {
+			int i = Long.numberOfTrailingZeros(m);
+			int octant = rays[i].signs;
+			if (octants[octant] == null) {
+				octants[octant] = new Ray[rays.length];
+				count += 1;
+			}
+			octants[octant][i] = rays[i];
+			masks[octant] |= 1L << i;
+		}
+		RayPacket[] packets = new RayPacket[count];
+		for (int octant = 0; octant < 8; octant++) {
+			if (octants[octant] != null) {
+				packets[--count] = new RayPacket(octants[octant], hits, occluded, masks[octant]);
+			}
+		}
+		return packets;
+	}
+
+	/**
+	 * Records for every active ray of this packet the closest hit with the
+	 * given shape before the hit recorded so far. Shapes which cannot trace a
+	 * packet trace the rays one by one.
+	 *
+	 * @throws NullPointerException
+	 *             when the given shape is null.
+	 */
+	public void intersect(Shape shape) throws NullPointerException {
+		if (shape instanceof PacketTraversable) {
+			((PacketTraversable) shape).intersect(this);
+			return;
+		}
+		for (long m = mask; m != 0; m &= m - 1) {
+			int i = Long.numberOfTrailingZeros(m);
+			shape.intersect(rays[i], hits[i]);
+		}
+	}
+
+	/**
+	 * Marks every active ray of this packet which hits the given shape before
+	 * its maximum ray parameter as occluded. Shapes which cannot trace a
+	 * packet trace the rays one by one.
+	 *
+	 * @throws NullPointerException
+	 *             when the given shape is null.
+	 */
+	public void intersects(Shape shape) throws NullPointerException {
+		if (shape instanceof PacketTraversable) {
+			((PacketTraversable) shape).intersects(this);
+			return;
+		}
+		for (long m = mask; m != 0; m &= m - 1) {
+			int i = Long.numberOfTrailingZeros(m);
+			if (!occluded[i] && shape.intersects(rays[i], rays[i].tMax)) {
+				occluded[i] = true;
+			}
+		}
+	}
+
+	/**
+	 * Returns whether the given box certainly misses every active ray of this
+	 * coherent packet between zero and the given maximum.
+	 *
+	 * The entry and exit parameters of the rays for every slab are bounded
+	 * with interval arithmetic: the distance from the origins to a plane lies
+	 * within an interval, and so does the reciprocal of the direction, so
+	 * their product lies within the interval spanned by the products of the
+	 * end points. When the latest entry bound exceeds the earliest exit bound,
+	 * no ray of the packet can overlap the box. Products which are NaN are
+	 * ignored by the comparisons, so such a slab never culls the box.
+	 */
+	boolean missesBox(double[] bounds, int b, double tMax) {
+		double tNear = 0;
+		double tFar = tMax;
+		for (int k = 0; k < 3; k++) {
+			int negative = (signs >> k) & 1;
+			double nearPlane = bounds[b + k + 3 * negative];
+			double farPlane = bounds[b + k + 3 - 3 * negative];
+			double near = lowerProduct(nearPlane - origins[k + 3], nearPlane - origins[k],
+					inverses[k], inverses[k + 3]);
+			double far = upperProduct(farPlane - origins[k + 3], farPlane - origins[k],
+					inverses[k], inverses[k + 3]);
+			if (near > tNear) tNear = near;
+			if (far < tFar) tFar = far;
+		}
+		return tNear > tFar;
+	}
+
+	/**
+	 * Returns the smallest product of a value in [a0, a1] and a value in [b0,
+	 * b1], or NaN when one of the products is NaN.
+	 */
+	private static double lowerProduct(double a0, double a1, double b0, double b1) {
+		return Math.min(Math.min(a0 * b0, a0 * b1), Math.min(a1 * b0, a1 * b1));
+	}
+
+	/**
+	 * Returns the largest product of a value in [a0, a1] and a value in [b0,
+	 * b1], or NaN when one of the products is NaN.
+	 */
+	private static double upperProduct(double a0, double a1, double b0, double b1) {
+		return Math.max(Math.max(a0 * b0, a0 * b1), Math.max(a1 * b0, a1 * b1));
+	}
+}
@@ -0,0 +1,80 @@
+package acceleration;
+
+/**
+ * The per-thread state of a {@link FlatBVH} traversal.
+ *
+ * Nested traversals (e.g. through an instanced mesh in a leaf of the scene
+ * hierarchy) share the stack of their thread: every traversal pushes its
+ * nodes above the entries of the traversal that started it and restores
+ * {@link #top} when it finishes.
+ */
+class TraversalStack {
+
+	private static final int INITIAL_SIZE = 256;
+
+	private static final ThreadLocal<TraversalStack> stacks = new ThreadLocal<TraversalStack>() {
+		@Override
+		protected TraversalStack initialValue() {
+			return new TraversalStack();
+		}
+	};
+
+	int[] nodes = new int[INITIAL_SIZE];
+
+	/**
+	 * The entry distances of the nodes on the stack, for the traversals which
+	 * keep them. Only allocated once such a traversal runs on this thread, see
+	 * {@link #ensureDistanceCapacity(int)}.
+	 */
+	double[] distances;
+
+	/**
+	 * The entry distances of the children of a node of a {@link WideBVH},
+	 * allocated with {@link #distances}.
+	 */
+	double[] childDistances;
+
+	int top = 0;
+
+	/**
+	 * The number of node and primitive tests performed since the last reset.
+	 */
+	int tests = 0;
+
+	static TraversalStack get() {
+		return stacks.get();
+	}
+
+	/**
+	 * Makes sure that the given number of entries fits above the current top
+	 * of the stack. This only allocates for hierarchies deeper than any
+	 * traversed before on this thread.
+	 */
+	void ensureCapacity(int entries) {
+		if (top + entries > nodes.length) {
+			int size = Math.max(2 * nodes.length, top + entries);
+			int[] larger = new int[size];
+			System.arraycopy(nodes, 0, larger, 0, top);
+			nodes = larger;
+		}
+	}
+
+	/**
+	 * Makes sure that the given number of entries and their distances fit
+	 * above the current top of the stack. Only the distances of the entries
+	 * of traversals which keep them are meaningful.
+	 */
+	void ensureDistanceCapacity(int entries) {
+		ensureCapacity(entries);
+		if (distances == null || distances.length < nodes.length) {
+			double[] larger = new double[nodes.length];
+			if (distances != null) {
+				System.arraycopy(distances, 0, larger, 0, Math.min(top, distances.length));
+			}
+			distances = larger;
+		}
+		if (childDistances == null) {
+			childDistances = new double[WideBVH.MAX_WIDTH];
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package acceleration;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+import math.Ray;
+
+/**
+ * A {@link LaneTest} with the vector API: the six planes of the children of
+ * a node are loaded as one vector each, and the slab test runs on all
+ * children at once.
+ *
+ * The comparisons are blended in the same order as the scalar loop of
+ * {@link WideBVH}, so a comparison with NaN keeps the previous distance and
+ * the hierarchy visits the same children in the same order on either path.
+ *
+ * The vector operations are only compiled to vector instructions when their
+ * species is a constant, so every width has its own constant species, and
+ * the test is split into methods small enough to be inlined with it.
+ *
+ * Only loaded by {@link LaneTest#create(int)}.
+ */
+final class VectorLaneTest extends LaneTest {
+
+	private static final VectorSpecies<Double> SPECIES_2 = DoubleVector.SPECIES_128;
+	private static final VectorSpecies<Double> SPECIES_4 = DoubleVector.SPECIES_256;
+	private static final VectorSpecies<Double> SPECIES_8 = DoubleVector.SPECIES_512;
+
+	private final int width;
+
+	private VectorLaneTest(int width) {
+		this.width = width;
+	}
+
+	/**
+	 * Returns a lane test for nodes of the given width, or null when the
+	 * processor has no vector of that many doubles.
+	 */
+	static LaneTest create(int width) {
+		if (width != 2 && width != 4 && width != 8 || width > DoubleVector.SPECIES_PREFERRED.length()) {
+			// the wider vectors would be emulated, which is far slower
+			return null;
+		}
+		return new VectorLaneTest(width);
+	}
+
+	@Override
+	long test(double[] lanes, int node, int n, Ray ray, double tMax, double[] entries) {
+		switch (width) {
+		case 2:
+			return test(SPECIES_2, lanes, node, n, ray, tMax, entries);
+		case 4:
+			return test(SPECIES_4, lanes, node, n, ray, tMax, entries);
+		default:
+			return test(SPECIES_8, lanes, node, n, ray, tMax, entries);
+		}
+	}
+
+	private static long test(VectorSpecies<Double> species, double[] lanes, int node, int n, Ray ray,
+			double tMax, double[] entries) {
+		int width = species.length();
+		int signs = ray.signs;
+		int nearX = 3 * (signs & 1) * width, farX = 3 * width - nearX;
+		int nearY = (1 + 3 * ((signs >> 1) & 1)) * width, farY = 5 * width - nearY;
+		int nearZ = (2 + 3 * (signs >> 2)) * width, farZ = 7 * width - nearZ;
+
+		DoubleVector tNear = DoubleVector.zero(species);
+		DoubleVector tFar = DoubleVector.broadcast(species, tMax);
+		tNear = enter(species, tNear, lanes, node + nearX, ray.origin.x, ray.invX);
+		tFar = exit(species, tFar, lanes, node + farX, ray.origin.x, ray.invX);
+		tNear = enter(species, tNear, lanes, node + nearY, ray.origin.y, ray.invY);
+		tFar = exit(species, tFar, lanes, node + farY, ray.origin.y, ray.invY);
+		tNear = enter(species, tNear, lanes, node + nearZ, ray.origin.z, ray.invZ);
+		tFar = exit(species, tFar, lanes, node + farZ, ray.origin.z, ray.invZ);
+
+		// the unused lanes hold empty bounds, which no ray overlaps
+		VectorMask<Double> hits = tNear.compare(VectorOperators.LE, tFar);
+		tNear.intoArray(entries, 0);
+		return hits.toLong() & ((1L << n) - 1);
+	}
+
+	/**
+	 * Returns the entry distances into the children after the near plane of
+	 * every child at the given offset, as the scalar loop does.
+	 */
+	private static DoubleVector enter(VectorSpecies<Double> species, DoubleVector tNear, double[] lanes,
+			int offset, double origin, double inverse) {
+		DoubleVector t = DoubleVector.fromArray(species, lanes, offset).sub(origin).mul(inverse);
+		return tNear.blend(t, t.compare(VectorOperators.GT, tNear));
+	}
+
+	/**
+	 * Returns the exit distances out of the children after the far plane of
+	 * every child at the given offset, as the scalar loop does.
+	 */
+	private static DoubleVector exit(VectorSpecies<Double> species, DoubleVector tFar, double[] lanes,
+			int offset, double origin, double inverse) {
+		DoubleVector t = DoubleVector.fromArray(species, lanes, offset).sub(origin).mul(inverse);
+		return tFar.blend(t, t.compare(VectorOperators.LT, tFar));
+	}
+}
@@ -0,0 +1,356 @@
+package acceleration;
+
+import math.Point;
+import math.Ray;
+import math.Vector;
+import shape.Hit;
+import shape.Intersection;
+import shape.Shape;
+import util.DoubleArrayList;
+import util.IntArrayList;
+import util.Pair;
+
+/**
+ * A bounding volume hierarchy with up to eight children per node, collapsed
+ * from a binary {@link FlatBVH}.
+ *
+ * Every node of the binary hierarchy is replaced by its children, largest
+ * surface area first, until a node has the requested number of children or
+ * only leaves are left. The bounds of the children of a node are stored
+ * plane by plane: the minimum x of all children, then the minimum y of all
+ * children, and so on, so all children of a node are tested in one pass over
+ * consecutive values. The leaves keep the primitive ranges of the binary
+ * hierarchy.
+ *
+ * Traversal pushes the children which are hit sorted by their entry
+ * distance, so the nearest child is visited first, and skips entries beyond
+ * the closest hit found since they were pushed. The children are tested with
+ * the vector API when it is available, see {@link LaneTest}, and with a
+ * scalar loop otherwise.
+ */
+public class WideBVH implements Shape {
+
+	public static final int MAX_WIDTH = 8;
+
+	private final int width;
+	/**
+	 * The bounds of the children of every node: for every node six planes
+	 * (minx, miny, minz, maxx, maxy, maxz) of width values each.
+	 */
+	private final double[] lanes;
+	/**
+	 * The children of every node, width values per node: the index of a node,
+	 * or the complement of the index of a leaf.
+	 */
+	private final int[] children;
+	/**
+	 * The number of children of every node.
+	 */
+	private final byte[] sizes;
+	private final int[] leafOffsets;
+	private final int[] leafCounts;
+	private final int[] primitives;
+	private final PrimitiveSet set;
+	private final double[] rootBounds;
+	private int depth = 0;
+
+	/**
+	 * The vector test of the children of a node, or null for the scalar loop.
+	 */
+	private final LaneTest vector;
+
+	/**
+	 * Collapses the given binary hierarchy into a hierarchy with at most the
+	 * given number of children per node.
+	 *
+	 * @throws IllegalArgumentException
+	 *             when the width is smaller than two or larger than
+	 *             {@link #MAX_WIDTH}.
+	 */
+	public WideBVH(FlatBVH binary, int width) throws IllegalArgumentException {
+		if (width < 2 || width > MAX_WIDTH)
+			throw new IllegalArgumentException("the width must be between 2 and " + MAX_WIDTH + "!");
+		this.width = width;
+		this.primitives = binary.primitives;
+		this.set = binary.set;
+		this.rootBounds = new double[6];
+		System.arraycopy(binary.bounds, 0, rootBounds, 0, 6);
+
+		DoubleArrayList lanes = new DoubleArrayList(6 * width * binary.getNumberOfNodes() / (width - 1));
+		IntArrayList children = new IntArrayList(width * binary.getNumberOfNodes() / (width - 1));
+		IntArrayList sizes = new IntArrayList();
+		IntArrayList leafOffsets = new IntArrayList();
+		IntArrayList leafCounts = new IntArrayList();
+		collapse(binary, 0, 1, lanes, children, sizes, leafOffsets, leafCounts);
+		this.lanes = lanes.toArray();
+		this.children = children.toArray();
+		this.sizes = new byte[sizes.size()];
+		for (int i = 0; i < sizes.size(); i++) {
+			this.sizes[i] = (byte) sizes.get(i);
+		}
+		this.leafOffsets = leafOffsets.toArray();
+		this.leafCounts = leafCounts.toArray();
+		this.vector = LaneTest.create(width);
+	}
+
+	/**
+	 * Appends the node replacing the given binary node and its subtree, and
+	 * returns its index.
+	 */
+	private int collapse(FlatBVH binary, int root, int level, DoubleArrayList lanes,
+			IntArrayList children, IntArrayList sizes, IntArrayList leafOffsets,
+			IntArrayList leafCounts) {
+		depth = Math.max(depth, level);
+		int[] members = new int[width];
+		int n = 0;
+		if (isLeaf(binary, root)) {
+			members[n++] = root;
+		} else {
+			members[n++] = root + 1;
+			members[n++] = binary.offsets[root];
+		}
+		// open the interior member with the largest surface area
+		while (n < width) {
+			int best = -1;
+			double largest = -1;
+			for (int i = 0; i < n; i++) {
+				if (!isLeaf(binary, members[i])) {
+					double area = PrimitiveBounds.getHalfSurfaceArea(binary.bounds, 6 * members[i]);
+					if (area > largest) {
+						largest = area;
+						best = i;
+					}
+				}
+			}
+			if (best == -1) {
+				break;
+			}
+			int node = members[best];
+			members[best] = node + 1;
+			members[n++] = binary.offsets[node];
+		}
+
+		int index = sizes.size();
+		sizes.add(n);
+		for (int plane = 0; plane < 6; plane++) {
+			for (int lane = 0; lane < width; lane++) {
+				// unused lanes hold empty bounds which no ray overlaps
+				lanes.add(lane < n ? binary.bounds[6 * members[lane] + plane]
+						: plane < 3 ? Double.POSITIVE_INFINITY : Double.NEGATIVE_INFINITY);
+			}
+		}
+		int first = children.size();
+		for (int lane = 0; lane < width; lane++) {
+			children.add(0);
+		}
+		for (int lane = 0; lane < n; lane++) {
+			int member = members[lane];
+			if (isLeaf(binary, member)) {
+				children.set(first + lane, ~leafOffsets.size());
+				leafOffsets.add(binary.offsets[member]);
+				leafCounts.add(binary.counts[member]);
+			} else {
+				children.set(first + lane, collapse(binary, member, level + 1, lanes, children,
+						sizes, leafOffsets, leafCounts));
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Returns whether the given node of the given binary hierarchy is a leaf.
+	 * The only node of a hierarchy without primitives is an empty leaf.
+	 */
+	private static boolean isLeaf(FlatBVH binary, int node) {
+		return binary.counts[node] != 0 || binary.getNumberOfNodes() == 1;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getNumberOfNodes() {
+		return sizes.length;
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * Returns whether the children of a node are tested with the vector API.
+	 */
+	public boolean isVectorized() {
+		return vector != null;
+	}
+
+	@Override
+	public Intersection getIntersection(Ray ray) {
+		if (ray == null) {
+			return null;
+		}
+		Hit hit = new Hit(ray);
+		if (!intersect(ray, hit)) {
+			return null;
+		}
+		return set.getIntersection(ray, hit);
+	}
+
+	@Override
+	public Intersection getIntersection(Ray ray, Hit hit) {
+		return set.getIntersection(ray, hit);
+	}
+
+	/**
+	 * Closest-hit query: records the closest primitive hit before the hit
+	 * already recorded.
+	 */
+	@Override
+	public boolean intersect(Ray ray, Hit hit) {
+		return traverse(ray, hit, hit.t);
+	}
+
+	/**
+	 * Any-hit query: stops at the first primitive hit before tMax.
+	 */
+	@Override
+	public boolean intersects(Ray ray, double tMax) {
+		return traverse(ray, null, tMax);
+	}
+
+	/**
+	 * Traverses this hierarchy with the given ray. Without a hit record, the
+	 * traversal stops at the first primitive hit before tMax.
+	 */
+	private boolean traverse(Ray ray, Hit hit, double tMax) {
+		double ox = ray.origin.x, oy = ray.origin.y, oz = ray.origin.z;
+		double invx = ray.invX, invy = ray.invY, invz = ray.invZ;
+		int signs = ray.signs;
+		// the offsets of the near and the far plane of every axis
+		int nearX = 3 * (signs & 1) * width, farX = 3 * width - nearX;
+		int nearY = (1 + 3 * ((signs >> 1) & 1)) * width, farY = 5 * width - nearY;
+		int nearZ = (2 + 3 * (signs >> 2)) * width, farZ = 7 * width - nearZ;
+
+		TraversalStack state = TraversalStack.get();
+		state.ensureDistanceCapacity(depth * width + 1);
+		int[] stack = state.nodes;
+		double[] distances = state.distances;
+		double[] entries = state.childDistances;
+		int base = state.top;
+		int top = base;
+		stack[top] = 0;
+		distances[top++] = 0;
+
+		boolean found = false;
+		int tests = 0;
+		while (top > base) {
+			int entry = stack[--top];
+			if (distances[top] > tMax) {
+				continue;
+			}
+			if (entry < 0) {
+				state.top = top;
+				int leaf = ~entry;
+				int end = leafOffsets[leaf] + leafCounts[leaf];
+				for (int i = leafOffsets[leaf]; i < end; i++) {
+					tests += 1;
+					if (hit == null) {
+						if (set.intersects(primitives[i], ray, tMax)) {
+							state.top = base;
+							state.tests += tests;
+							return true;
+						}
+					} else if (set.intersect(primitives[i], ray, hit)) {
+						tMax = hit.t;
+						found = true;
+					}
+				}
+				// a nested traversal may have grown the stack
+				stack = state.nodes;
+				distances = state.distances;
+				continue;
+			}
+
+			int n = sizes[entry];
+			int node = 6 * width * entry;
+			int first = top;
+			tests += n;
+			if (vector != null) {
+				for (long hits = vector.test(lanes, node, n, ray, tMax, entries); hits != 0; hits &= hits - 1) {
+					int lane = Long.numberOfTrailingZeros(hits);
+					top = push(stack, distances, first, top, children[entry * width + lane], entries[lane]);
+				}
+				continue;
+			}
+			for (int lane = 0; lane < n; lane++) {
+				double tNear = 0;
+				double tFar = tMax;
+				double t = (lanes[node + nearX + lane] - ox) * invx;
+				if (t > tNear) tNear = t;
+				t = (lanes[node + farX + lane] - ox) * invx;
+				if (t < tFar) tFar = t;
+				t = (lanes[node + nearY + lane] - oy) * invy;
+				if (t > tNear) tNear = t;
+				t = (lanes[node + farY + lane] - oy) * invy;
+				if (t < tFar) tFar = t;
+				t = (lanes[node + nearZ + lane] - oz) * invz;
+				if (t > tNear) tNear = t;
+				t = (lanes[node + farZ + lane] - oz) * invz;
+				if (t < tFar) tFar = t;
+				if (tNear <= tFar) {
+					top = push(stack, distances, first, top, children[entry * width + lane], tNear);
+				}
+			}
+		}
+		state.top = base;
+		state.tests += tests;
+		return found;
+	}
+
+	/**
+	 * Pushes the given child with the given entry distance on the stack,
+	 * sorted among the children pushed from the given position on so the
+	 * nearest child ends up on top, and returns the new top.
+	 */
+	private static int push(int[] stack, double[] distances, int first, int top, int child,
+			double distance) {
+		int i = top++;
+		while (i > first && distances[i - 1] < distance) {
+			stack[i] = stack[i - 1];
+			distances[i] = distances[i - 1];
+			i--;
+		}
+		stack[i] = child;
+		distances[i] = distance;
+		return top;
+	}
+
+	@Override
+	public Vector getNormal(Point p) {
+		return null;
+	}
+
+	@Override
+	public boolean isTwoSided() {
+		return false;
+	}
+
+	@Override
+	public Point getCentric() {
+		return new Point((rootBounds[0] + rootBounds[3]) / 2, (rootBounds[1] + rootBounds[4]) / 2,
+				(rootBounds[2] + rootBounds[5]) / 2);
+	}
+
+	@Override
+	public BV createNewBV() {
+		BV bv = new BV(new Point(rootBounds[0], rootBounds[1], rootBounds[2]),
+				new Point(rootBounds[3], rootBounds[4], rootBounds[5]));
+		bv.addShape(this);
+		return bv;
+	}
+
+	@Override
+	public Pair<Double, Double> getUV(Point p) {
+		return null;
+	}
+}
@@ -13,56 +13,17 @@ import util.Pair;
 
 public class SAHSplitter extends Splitter {
 
-	static {
-		instance = new SAHSplitter();
-	}
-	private static SplitMode mode;
-	private SAHSplitter(){
-		super();
-	}
-	
-	@Override
-	public Pair<BV, BV> split(BV parent) {
-		if (mode.equals(SplitMode.ALTERNATING)) {
-			return splitAlternating(parent);
-		} else if (mode.equals(SplitMode.ALL_AXIS)) {
-			return splitAllAxes(parent);
-		} else if (mode.equals(SplitMode.LONGEST_AXIS)) {
-			return splitLongest(parent);
-		}
-		return null;
-	}
-
-	private Pair<BV, BV> splitLongest(BV parent) {
-		double x = parent.getRightTop().x - parent.getLeftBottom().x;
-		double y = parent.getRightTop().y - parent.getLeftBottom().y;
-		double z = parent.getRightTop().z - parent.getLeftBottom().z;
-		if (x >= y && x >= z) {
-			currentSplit = SPLIT_X;
-		} else if (y >= x && y >= z) {
-			currentSplit = SPLIT_Y;
-		} else if (z >= x && z >= y) {
-			currentSplit = SPLIT_Z;
-		}
-		return splitAlternating(parent);
+	private SAHSplitter(SplitMode mode) {
+		super(mode);
 	}
 
-	private Pair<BV, BV> splitAllAxes(BV parent) {
-		currentSplit = SPLIT_X;
-		Pair<BV, BV> x = splitAlternating(parent);
-		currentSplit = SPLIT_Y;
-		Pair<BV, BV> y = splitAlternating(parent);
-		currentSplit = SPLIT_Z;
-		Pair<BV, BV> z = splitAlternating(parent);
-		return getBestSplit(x, y, z);
-	}
-
-	public Pair<BV, BV> splitAlternating(BV parent) {
-		double distance = getCurrentSplitValue(parent.getRightTop()) - getCurrentSplitValue(parent.getLeftBottom());
+	@Override
+	protected Pair<BV, BV> splitAlongAxis(BV parent, int axis) {
+		double distance = getSplitValue(parent.getRightTop(), axis) - getSplitValue(parent.getLeftBottom(), axis);
 		List<Double> binBoundaries = new ArrayList<>();
 		List<BV> bins = new ArrayList<>();
 		for (int i = 1; i <= nb_bins_SAH; i++) {
-			binBoundaries.add(getCurrentSplitValue(parent.getLeftBottom()) + distance * i / nb_bins_SAH);
+			binBoundaries.add(getSplitValue(parent.getLeftBottom(), axis) + distance * i / nb_bins_SAH);
 			Point leftBottom = new Point(Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE);
 			Point rightTop = new Point(-Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE);
 			BV binBox = new BV(leftBottom, rightTop);
@@ -70,7 +31,7 @@ public class SAHSplitter extends Splitter {
 		}
 		for (Shape shape : parent.getShapes()) {
 			for (int i = 0; i < nb_bins_SAH; i++) {
-				if (getCurrentSplitValue(shape.getCentric()) < binBoundaries.get(i)) {
+				if (getSplitValue(shape.getCentric(), axis) < binBoundaries.get(i)) {
 					bins.get(i).expand(shape.createNewBV());
 					if (shape instanceof BVInstance) {
 						BV newbv = shape.createNewBV();
@@ -110,11 +71,9 @@ public class SAHSplitter extends Splitter {
 				currentBest = new Pair<>(newFirst, newSecond);
 			}
 		}
-		currentSplit = (currentSplit + 1) % 3;
 		return currentBest;
 	}
 	public static Splitter get(SplitMode splitmode) {
-		mode = splitmode;
-		return instance;
+		return new SAHSplitter(splitmode);
 	}
 }
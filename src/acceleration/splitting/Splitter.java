@@ -4,22 +4,62 @@ import acceleration.BV;
 import math.Point;
 import util.Pair;
 
+/**
+ * Splits the shapes of a bounding volume in two.
+ * 
+ * A splitter keeps no state between calls, so different subtrees of a
+ * hierarchy can be split concurrently by the same splitter.
+ */
 public abstract class Splitter {
 	protected static final int SPLIT_X = 0;
 	protected static final int SPLIT_Y = 1;
 	protected static final int SPLIT_Z = 2;
-	protected static int currentSplit = 0;
 
 	protected static final int nb_shapes = 8;
 	protected static final int nb_bins_SAH = 4;
 
-	
-	static Splitter instance;
-	
-	public abstract Pair<BV, BV> split(BV parent);
-	
-	public static Splitter get(SplitMode mode) {
-		return instance;
+	protected final SplitMode mode;
+
+	protected Splitter(SplitMode mode) {
+		this.mode = mode;
+	}
+
+	/**
+	 * Splits the shapes of the given parent in two.
+	 * 
+	 * @param parent
+	 *            the bounding volume to split.
+	 * @param depth
+	 *            the depth of the parent in the hierarchy, which determines
+	 *            the axis in {@link SplitMode#ALTERNATING} mode.
+	 * @return the bounding volumes of both halves.
+	 */
+	public Pair<BV, BV> split(BV parent, int depth) {
+		if (mode.equals(SplitMode.ALTERNATING)) {
+			return splitAlongAxis(parent, depth % 3);
+		} else if (mode.equals(SplitMode.ALL_AXIS)) {
+			Pair<BV, BV> x = splitAlongAxis(parent, SPLIT_X);
+			Pair<BV, BV> y = splitAlongAxis(parent, SPLIT_Y);
+			Pair<BV, BV> z = splitAlongAxis(parent, SPLIT_Z);
+			return getBestSplit(x, y, z);
+		} else if (mode.equals(SplitMode.LONGEST_AXIS)) {
+			return splitAlongAxis(parent, getLongestAxis(parent));
+		}
+		return null;
+	}
+
+	protected abstract Pair<BV, BV> splitAlongAxis(BV parent, int axis);
+
+	private static int getLongestAxis(BV parent) {
+		double x = parent.getRightTop().x - parent.getLeftBottom().x;
+		double y = parent.getRightTop().y - parent.getLeftBottom().y;
+		double z = parent.getRightTop().z - parent.getLeftBottom().z;
+		if (x >= y && x >= z) {
+			return SPLIT_X;
+		} else if (y >= x && y >= z) {
+			return SPLIT_Y;
+		}
+		return SPLIT_Z;
 	}
 	
 	protected Pair<BV, BV> getBestSplit(Pair<BV, BV> x, Pair<BV, BV> y, Pair<BV, BV> z) {
@@ -52,12 +92,12 @@ public abstract class Splitter {
 		return costFirst + costSecond;
 	}
 
-	protected static double getCurrentSplitValue(Point p) {
-		if (currentSplit == SPLIT_X) {
+	protected static double getSplitValue(Point p, int axis) {
+		if (axis == SPLIT_X) {
 			return p.x;
-		} else if (currentSplit == SPLIT_Y) {
+		} else if (axis == SPLIT_Y) {
 			return p.y;
-		} else if (currentSplit == SPLIT_Z) {
+		} else if (axis == SPLIT_Z) {
 			return p.z;
 		}
 		return 0.0;
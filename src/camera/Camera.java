@@ -21,4 +21,17 @@ public interface Camera {
 	 * @return a new ray from the given sample.
 	 */
 	public Ray generateRay(Sample sample) throws NullPointerException;
+
+	/**
+	 * Generates a new ray through the given position of the image, as
+	 * {@link #generateRay(Sample)} does for a sample at that position,
+	 * without creating the sample.
+	 * 
+	 * @param x
+	 *            x coordinate of the position in image space.
+	 * @param y
+	 *            y coordinate of the position in image space.
+	 * @return a new ray through the given position.
+	 */
+	public Ray generateRay(double x, double y);
 }
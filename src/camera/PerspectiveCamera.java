@@ -141,11 +141,23 @@ public class PerspectiveCamera implements Camera {
 	 * @see camera.Camera#generateRay(sampling.Sample)
 	 */
 	public Ray generateRay(Sample sample) throws NullPointerException {
-		double u = width * (sample.x * invxResolution - 0.5);
-		double v = height * (sample.y * invyResolution - 0.5);
+		return generateRay(sample.x, sample.y);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see camera.Camera#generateRay(double, double)
+	 */
+	public Ray generateRay(double x, double y) {
+		double u = width * (x * invxResolution - 0.5);
+		double v = height * (y * invyResolution - 0.5);
 
-		Vector direction = basis.u.scale(u).add(basis.v.scale(v))
-				.subtract(basis.w);
+		// u * basis.u + v * basis.v - basis.w, without the intermediate
+		// vectors
+		Vector direction = new Vector(basis.u.x * u + basis.v.x * v - basis.w.x,
+				basis.u.y * u + basis.v.y * v - basis.w.y,
+				basis.u.z * u + basis.v.z * v - basis.w.z);
 
 		return new Ray(origin, direction);
 	}
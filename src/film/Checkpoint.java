@@ -0,0 +1,229 @@
+package film;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A checkpoint of a render in progress, periodically written to a binary file
+ * so an interrupted render can be resumed.
+ *
+ * The checkpoint holds the channels of all pixels of the frame buffer (the
+ * radiance sums, the weights and the luminance statistics) and, for every
+ * tile, the number of samples per pixel the tile has finished. The samplers
+ * only depend on their seed, the pixel and the index of the sample, so the
+ * seed in the render settings and the finished samples of a tile are all the
+ * state needed to continue with the next sample.
+ *
+ * A tile being rendered holds a partial sample, so the checkpoint keeps its
+ * own copy of the channels, to which a tile is copied when it finishes its
+ * samples. The file is only used to resume a render with the same settings,
+ * and is written like the mesh cache: to a temporary file which then
+ * atomically replaces the old checkpoint, so a render interrupted while
+ * writing leaves the previous checkpoint intact.
+ */
+public class Checkpoint {
+
+	private static final int MAGIC = 0x434b5054;
+	private static final int VERSION = 1;
+
+	private final File file;
+	private final String settings;
+	private final FrameBuffer buffer;
+	private final Map<Tile, Integer> indices = new HashMap<Tile, Integer>();
+	private final long interval;
+
+	/**
+	 * The channels of the finished samples of every tile.
+	 */
+	private final double[] channels;
+
+	/**
+	 * The number of finished samples per pixel of every tile.
+	 */
+	private final int[] samples;
+
+	private final AtomicBoolean writing = new AtomicBoolean();
+	private volatile long lastWrite = System.nanoTime();
+
+	/**
+	 * Creates a new checkpoint of the given frame buffer in the given file.
+	 *
+	 * @param file
+	 *            the file to write the checkpoint to.
+	 * @param settings
+	 *            a description of the render settings, a checkpoint is only
+	 *            resumed by a render with the same settings.
+	 * @param buffer
+	 *            the frame buffer to checkpoint.
+	 * @param tiles
+	 *            the tiles the frame buffer is rendered in, always in the
+	 *            same order.
+	 * @param interval
+	 *            the minimum time in seconds between two writes of the
+	 *            checkpoint.
+	 * @throws IllegalArgumentException
+	 *             when the interval is smaller than zero.
+	 */
+	public Checkpoint(File file, String settings, FrameBuffer buffer, List<Tile> tiles,
+			double interval) throws IllegalArgumentException {
+		if (interval < 0)
+			throw new IllegalArgumentException("the interval cannot be smaller than zero!");
+		this.file = file;
+		this.settings = settings;
+		this.buffer = buffer;
+		for (int i = 0; i < tiles.size(); i++) {
+			indices.put(tiles.get(i), i);
+		}
+		this.interval = (long) (interval * 1e9);
+		this.channels = new double[buffer.xResolution * buffer.yResolution * FrameBuffer.CHANNELS];
+		this.samples = new int[tiles.size()];
+	}
+
+	/**
+	 * Returns the number of samples per pixel the given tile has finished.
+	 */
+	public synchronized int getSamples(Tile tile) {
+		return samples[indices.get(tile)];
+	}
+
+	/**
+	 * Returns the number of samples per pixel all tiles have finished.
+	 */
+	public synchronized int getSamples() {
+		int result = Integer.MAX_VALUE;
+		for (int count : samples) {
+			result = Math.min(result, count);
+		}
+		return samples.length == 0 ? 0 : result;
+	}
+
+	/**
+	 * Records that the given tile of the frame buffer has finished the given
+	 * number of samples per pixel, and writes the checkpoint when the
+	 * interval has passed since the last write. Must be called by the thread
+	 * which rendered the tile.
+	 *
+	 * @throws IOException
+	 *             when the checkpoint cannot be written.
+	 */
+	public void finished(Tile tile, int count) throws IOException {
+		synchronized (this) {
+			buffer.copyTo(tile, channels);
+			samples[indices.get(tile)] = count;
+		}
+		if (System.nanoTime() - lastWrite >= interval) {
+			store();
+		}
+	}
+
+	/**
+	 * Writes this checkpoint to its file, unless another thread is writing
+	 * it already.
+	 *
+	 * @throws IOException
+	 *             when the checkpoint cannot be written.
+	 */
+	public void store() throws IOException {
+		if (!writing.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			byte[] settingsBytes = settings.getBytes(StandardCharsets.UTF_8);
+			int size = 4 + 4 + 4 + settingsBytes.length + 4 + 4 * samples.length
+					+ 4 + 8 * channels.length;
+			ByteBuffer data = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+			data.putInt(MAGIC);
+			data.putInt(VERSION);
+			data.putInt(settingsBytes.length);
+			data.put(settingsBytes);
+			synchronized (this) {
+				data.putInt(samples.length);
+				data.asIntBuffer().put(samples);
+				data.position(data.position() + 4 * samples.length);
+				data.putInt(channels.length);
+				data.asDoubleBuffer().put(channels);
+				data.position(data.position() + 8 * channels.length);
+			}
+			data.flip();
+
+			File temporary = File.createTempFile(file.getName(), ".tmp",
+					file.getAbsoluteFile().getParentFile());
+			try {
+				try (FileChannel channel = FileChannel.open(temporary.toPath(), StandardOpenOption.WRITE)) {
+					while (data.hasRemaining()) {
+						channel.write(data);
+					}
+					channel.force(false);
+				}
+				Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				Files.deleteIfExists(temporary.toPath());
+			}
+			lastWrite = System.nanoTime();
+		} finally {
+			writing.set(false);
+		}
+	}
+
+	/**
+	 * Loads this checkpoint from its file into the frame buffer, replacing
+	 * the contents of the frame buffer.
+	 *
+	 * @return false when there is no checkpoint, or when it was written for
+	 *         different render settings or by a different version.
+	 * @throws IOException
+	 *             when the checkpoint cannot be read or is corrupt. The frame
+	 *             buffer is then left unchanged.
+	 */
+	public synchronized boolean load() throws IOException {
+		if (!file.isFile()) {
+			return false;
+		}
+		MappedByteBuffer data;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		data.order(ByteOrder.LITTLE_ENDIAN);
+		try {
+			if (data.getInt() != MAGIC || data.getInt() != VERSION) {
+				return false;
+			}
+			byte[] storedSettings = new byte[data.getInt()];
+			data.get(storedSettings);
+			if (!settings.equals(new String(storedSettings, StandardCharsets.UTF_8))) {
+				return false;
+			}
+			int[] storedSamples = new int[data.getInt()];
+			data.asIntBuffer().get(storedSamples);
+			data.position(data.position() + 4 * storedSamples.length);
+			double[] storedChannels = new double[data.getInt()];
+			data.asDoubleBuffer().get(storedChannels);
+			if (storedSamples.length != samples.length || storedChannels.length != channels.length)
+				throw new IllegalArgumentException("the checkpoint does not match the frame buffer!");
+			for (int count : storedSamples) {
+				if (count < 0)
+					throw new IllegalArgumentException("negative sample count " + count + "!");
+			}
+			buffer.copyFrom(storedChannels);
+			System.arraycopy(storedSamples, 0, samples, 0, samples.length);
+			System.arraycopy(storedChannels, 0, channels, 0, channels.length);
+		} catch (RuntimeException e) {
+			// a truncated buffer or a mismatching size
+			throw new IOException("corrupt checkpoint " + file, e);
+		}
+		return true;
+	}
+}
@@ -0,0 +1,126 @@
+package film;
+
+import java.util.Locale;
+
+/**
+ * A mutable red, green and blue color with radiance as unit, used to
+ * accumulate the contributions to a sample in the render loop without
+ * allocating a new {@link RGBSpectrum} for every sum.
+ *
+ * Unlike a spectrum, a color does not validate its components on every
+ * operation. The components are validated once the color is added to a
+ * {@link FrameBuffer} or converted to a spectrum.
+ *
+ * A color is not thread safe, so every render thread uses its own.
+ */
+public class Color3 {
+	/**
+	 * The red color component (in radiance).
+	 */
+	public double red;
+
+	/**
+	 * The green color component (in radiance).
+	 */
+	public double green;
+
+	/**
+	 * The blue color component (in radiance).
+	 */
+	public double blue;
+
+	/**
+	 * Creates a new black color.
+	 */
+	public Color3() {
+	}
+
+	/**
+	 * Sets all components of this color to zero.
+	 *
+	 * @return this color.
+	 */
+	public Color3 clear() {
+		red = 0;
+		green = 0;
+		blue = 0;
+		return this;
+	}
+
+	/**
+	 * Sets the components of this color to the given components.
+	 *
+	 * @return this color.
+	 */
+	public Color3 set(double red, double green, double blue) {
+		this.red = red;
+		this.green = green;
+		this.blue = blue;
+		return this;
+	}
+
+	/**
+	 * Adds the given spectrum to this color.
+	 *
+	 * @param spectrum
+	 *            the spectrum to add to this color.
+	 * @throws NullPointerException
+	 *             when the given spectrum is null.
+	 * @return this color.
+	 */
+	public Color3 add(RGBSpectrum spectrum) throws NullPointerException {
+		red += spectrum.red;
+		green += spectrum.green;
+		blue += spectrum.blue;
+		return this;
+	}
+
+	/**
+	 * Adds the given color components to this color.
+	 *
+	 * @return this color.
+	 */
+	public Color3 add(double red, double green, double blue) {
+		this.red += red;
+		this.green += green;
+		this.blue += blue;
+		return this;
+	}
+
+	/**
+	 * Scales this color by the given scalar.
+	 *
+	 * @param scalar
+	 *            the scalar to scale this color with.
+	 * @return this color.
+	 */
+	public Color3 scale(double scalar) {
+		red = scalar * red;
+		green = scalar * green;
+		blue = scalar * blue;
+		return this;
+	}
+
+	/**
+	 * Returns a new spectrum with the components of this color.
+	 *
+	 * @throws IllegalArgumentException
+	 *             when one of the components is either infinite or not a
+	 *             number.
+	 * @return a new spectrum with the components of this color.
+	 */
+	public RGBSpectrum toSpectrum() throws IllegalArgumentException {
+		return new RGBSpectrum(red, green, blue);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return String.format(Locale.ENGLISH, "[Color3] %.2f %.2f %.2f", red,
+				green, blue);
+	}
+}
@@ -3,21 +3,51 @@ package film;
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferInt;
 import java.awt.image.WritableRaster;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.util.Collection;
 
 /**
- * A wrapper for a two-dimensional array of pixels.
+ * A two-dimensional array of pixels, each of which accumulates a weighted sum
+ * of spectra.
+ * 
+ * The pixels are stored in one flat array of doubles rather than as objects,
+ * so adding a sample to a pixel allocates nothing and a pixel takes 48 bytes.
+ * 
+ * Besides the weighted sums, every pixel keeps the running mean and variance
+ * of the luminance of its samples with Welford's algorithm, from which the
+ * error of the pixel is estimated, e.g. to decide whether it needs more
+ * samples.
+ * 
+ * Samples are added in one of two ways. The plain add methods expect the
+ * pixel to be owned by the calling thread, e.g. because the thread renders
+ * the tile containing the pixel and no other thread renders that tile. The
+ * atomic add methods may be called by any number of threads for the same
+ * pixel at once, e.g. to splat samples onto the pixels of other tiles or to
+ * let progressive passes overlap, at the cost of a compare-and-set per
+ * channel.
  * 
  * @author Niels Billen
  * @version 0.3
  */
 public class FrameBuffer {
 	/**
-	 * Two-dimensional array of pixels. The pixels are stored in row order. When
+	 * The number of values stored per pixel: the weighted sums of the red, the
+	 * green and the blue radiance, the sum of the weights, the weighted mean
+	 * of the luminance and the weighted sum of the squared differences of the
+	 * luminance from its mean.
+	 */
+	static final int CHANNELS = 6;
+
+	private static final VarHandle PIXELS = MethodHandles
+			.arrayElementVarHandle(double[].class);
+
+	/**
+	 * The channels of all pixels. The pixels are stored in row order. When
 	 * iterating over the pixels, one should first iterate over the y
 	 * coordinates, followed by the x coordinates for optimal performance.
 	 */
-	private final Pixel[][] frameBuffer;
+	private final double[] pixels;
 
 	/**
 	 * The horizontal resolution of this frame buffer.
@@ -39,6 +69,8 @@ public class FrameBuffer {
 	 *            the vertical resolution.
 	 * @throws IllegalArgumentException
 	 *             when either resolution is smaller than or equal to zero.
+	 * @throws IllegalArgumentException
+	 *             when the pixels do not fit in one array.
 	 */
 	public FrameBuffer(int xResolution, int yResolution)
 			throws IllegalArgumentException {
@@ -48,17 +80,16 @@ public class FrameBuffer {
 		if (yResolution <= 0)
 			throw new IllegalArgumentException(
 					"the vertical resolution must be larger than zero!");
+		if ((long) xResolution * yResolution * CHANNELS > Integer.MAX_VALUE)
+			throw new IllegalArgumentException(
+					"the resolution of the frame buffer is too large!");
 		this.xResolution = xResolution;
 		this.yResolution = yResolution;
-		this.frameBuffer = new Pixel[yResolution][xResolution];
-
-		for (int y = 0; y < yResolution; ++y)
-			for (int x = 0; x < xResolution; ++x)
-				this.frameBuffer[y][x] = new Pixel();
+		this.pixels = new double[xResolution * yResolution * CHANNELS];
 	}
 
 	/**
-	 * Returns the pixel at the given coordinates.
+	 * Returns a view of the pixel at the given coordinates.
 	 * 
 	 * Note that when iterating over the pixels in this buffer, one should first
 	 * iterate over the y coordinates for optimal performance.<br>
@@ -93,7 +124,317 @@ public class FrameBuffer {
 	 * @return the {@link Pixel} at the given coordinates.
 	 */
 	public Pixel getPixel(int x, int y) throws ArrayIndexOutOfBoundsException {
-		return frameBuffer[y][x];
+		return new Pixel(this, getIndex(x, y));
+	}
+
+	/**
+	 * Returns the index of the first channel of the pixel at the given
+	 * coordinates.
+	 * 
+	 * @throws ArrayIndexOutOfBoundsException
+	 *             when the given coordinates lie outside this frame buffer.
+	 */
+	int getIndex(int x, int y) throws ArrayIndexOutOfBoundsException {
+		if (x < 0 || x >= xResolution)
+			throw new ArrayIndexOutOfBoundsException("x coordinate " + x
+					+ " out of range!");
+		if (y < 0 || y >= yResolution)
+			throw new ArrayIndexOutOfBoundsException("y coordinate " + y
+					+ " out of range!");
+		return (y * xResolution + x) * CHANNELS;
+	}
+
+	/**
+	 * Copies the channels of the pixels of the given tile to the same
+	 * positions of the given array, which has as many elements as this frame
+	 * buffer has channels.
+	 */
+	void copyTo(Tile tile, double[] target) {
+		int length = tile.getWidth() * CHANNELS;
+		for (int y = tile.yStart; y < tile.yEnd; ++y) {
+			int index = getIndex(tile.xStart, y);
+			System.arraycopy(pixels, index, target, index, length);
+		}
+	}
+
+	/**
+	 * Replaces the channels of all pixels by the given channels.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             when the number of given channels differs from the number
+	 *             of channels of this frame buffer.
+	 */
+	void copyFrom(double[] source) throws IllegalArgumentException {
+		if (source.length != pixels.length)
+			throw new IllegalArgumentException("the number of channels must be "
+					+ pixels.length + "!");
+		System.arraycopy(source, 0, pixels, 0, pixels.length);
+	}
+
+	/**
+	 * Adds the given color values to the pixel at the given coordinates,
+	 * weighted by the given weight. The pixel must not be written by another
+	 * thread at the same time.
+	 * 
+	 * @throws ArrayIndexOutOfBoundsException
+	 *             when the given coordinates lie outside this frame buffer.
+	 * @throws IllegalArgumentException
+	 *             when one of the weighted color components is either infinite
+	 *             or NaN.
+	 */
+	public void add(int x, int y, double red, double green, double blue,
+			double weight) throws ArrayIndexOutOfBoundsException,
+			IllegalArgumentException {
+		add(getIndex(x, y), red, green, blue, weight);
+	}
+
+	/**
+	 * Adds the given spectrum to the pixel at the given coordinates with a
+	 * weight of 1.0. The pixel must not be written by another thread at the
+	 * same time.
+	 * 
+	 * @throws NullPointerException
+	 *             when the given spectrum is null.
+	 * @throws ArrayIndexOutOfBoundsException
+	 *             when the given coordinates lie outside this frame buffer.
+	 */
+	public void add(int x, int y, RGBSpectrum spectrum)
+			throws NullPointerException, ArrayIndexOutOfBoundsException {
+		if (spectrum == null)
+			throw new NullPointerException("the given spectrum is null!");
+		add(getIndex(x, y), spectrum.red, spectrum.green, spectrum.blue, 1.0);
+	}
+
+	void add(int index, double red, double green, double blue, double weight)
+			throws IllegalArgumentException {
+		double r = red * weight, g = green * weight, b = blue * weight;
+		checkComponents(r, g, b);
+		pixels[index] += r;
+		pixels[index + 1] += g;
+		pixels[index + 2] += b;
+		double weightSum = pixels[index + 3] += weight;
+		if (weightSum != 0) {
+			// Welford's update, weighted as by West
+			double luminance = getLuminance(red, green, blue);
+			double delta = luminance - pixels[index + 4];
+			pixels[index + 4] += delta * weight / weightSum;
+			pixels[index + 5] += weight * delta * (luminance - pixels[index + 4]);
+		}
+	}
+
+	private static double getLuminance(double red, double green, double blue) {
+		return 0.2126 * red + 0.7152 * green + 0.0722 * blue;
+	}
+
+	/**
+	 * Adds the given color values to the pixel at the given coordinates,
+	 * weighted by the given weight, with an atomic update of every channel.
+	 * Other threads may add to the same pixel at the same time. A thread
+	 * reading the pixel meanwhile may see some of the channels updated
+	 * before the others.
+	 * 
+	 * The variance of the pixel is not updated, as its update reads the mean
+	 * it changes: values splatted onto a pixel are not samples of the pixel.
+	 * 
+	 * @throws ArrayIndexOutOfBoundsException
+	 *             when the given coordinates lie outside this frame buffer.
+	 * @throws IllegalArgumentException
+	 *             when one of the weighted color components is either infinite
+	 *             or NaN.
+	 */
+	public void addAtomic(int x, int y, double red, double green, double blue,
+			double weight) throws ArrayIndexOutOfBoundsException,
+			IllegalArgumentException {
+		int index = getIndex(x, y);
+		double r = red * weight, g = green * weight, b = blue * weight;
+		checkComponents(r, g, b);
+		addAtomic(index, r);
+		addAtomic(index + 1, g);
+		addAtomic(index + 2, b);
+		addAtomic(index + 3, weight);
+	}
+
+	/**
+	 * Adds the given spectrum to the pixel at the given coordinates with a
+	 * weight of 1.0, as {@link #addAtomic(int, int, double, double, double,
+	 * double)} does.
+	 * 
+	 * @throws NullPointerException
+	 *             when the given spectrum is null.
+	 * @throws ArrayIndexOutOfBoundsException
+	 *             when the given coordinates lie outside this frame buffer.
+	 */
+	public void addAtomic(int x, int y, RGBSpectrum spectrum)
+			throws NullPointerException, ArrayIndexOutOfBoundsException {
+		if (spectrum == null)
+			throw new NullPointerException("the given spectrum is null!");
+		addAtomic(x, y, spectrum.red, spectrum.green, spectrum.blue, 1.0);
+	}
+
+	private void addAtomic(int index, double value) {
+		double current;
+		do {
+			current = (double) PIXELS.getVolatile(pixels, index);
+		} while (!PIXELS.weakCompareAndSet(pixels, index, current, current
+				+ value));
+	}
+
+	private static void checkComponents(double red, double green, double blue)
+			throws IllegalArgumentException {
+		if (Double.isInfinite(red) || Double.isNaN(red))
+			throw new IllegalArgumentException(
+					"the given red color component is not a valid number!");
+		if (Double.isInfinite(green) || Double.isNaN(green))
+			throw new IllegalArgumentException(
+					"the given green color component is not a valid number!");
+		if (Double.isInfinite(blue) || Double.isNaN(blue))
+			throw new IllegalArgumentException(
+					"the given blue color component is not a valid number!");
+	}
+
+	/**
+	 * Returns the spectrum of the pixel at the given coordinates: the
+	 * weighted sum of its spectra divided by the sum of the weights.
+	 * 
+	 * @throws ArrayIndexOutOfBoundsException
+	 *             when the given coordinates lie outside this frame buffer.
+	 * @return the spectrum of the pixel, black when nothing was added yet.
+	 */
+	public RGBSpectrum getSpectrum(int x, int y)
+			throws ArrayIndexOutOfBoundsException {
+		return getSpectrum(getIndex(x, y));
+	}
+
+	RGBSpectrum getSpectrum(int index) {
+		double weightSum = pixels[index + 3];
+		if (weightSum == 0)
+			return RGBSpectrum.BLACK;
+		return new RGBSpectrum(pixels[index], pixels[index + 1],
+				pixels[index + 2]).divide(weightSum);
+	}
+
+	/**
+	 * Returns the sum of the weights of the pixel at the given coordinates.
+	 * 
+	 * @throws ArrayIndexOutOfBoundsException
+	 *             when the given coordinates lie outside this frame buffer.
+	 */
+	public double getWeight(int x, int y) throws ArrayIndexOutOfBoundsException {
+		return pixels[getIndex(x, y) + 3];
+	}
+
+	/**
+	 * Returns the average weight of the pixels of this frame buffer, which is
+	 * the average number of samples per pixel for samples of unit weight.
+	 */
+	public double getSamplesPerPixel() {
+		double sum = 0;
+		for (int index = 3; index < pixels.length; index += CHANNELS)
+			sum += pixels[index];
+		return sum / (xResolution * yResolution);
+	}
+
+	/**
+	 * Returns the variance of the luminance of the samples of the pixel at the
+	 * given coordinates, zero when it has less than two samples.
+	 * 
+	 * @throws ArrayIndexOutOfBoundsException
+	 *             when the given coordinates lie outside this frame buffer.
+	 */
+	public double getVariance(int x, int y) throws ArrayIndexOutOfBoundsException {
+		return getVariance(getIndex(x, y));
+	}
+
+	/**
+	 * Returns the sample variance of the luminance, assuming samples of unit
+	 * weight.
+	 */
+	double getVariance(int index) {
+		double weightSum = pixels[index + 3];
+		if (weightSum <= 1)
+			return 0;
+		return pixels[index + 5] / (weightSum - 1);
+	}
+
+	/**
+	 * Returns the estimated relative error of the pixel at the given
+	 * coordinates: the standard error of the mean luminance of its samples
+	 * divided by that mean, assuming samples of unit weight.
+	 * 
+	 * @throws ArrayIndexOutOfBoundsException
+	 *             when the given coordinates lie outside this frame buffer.
+	 * @return the relative error of the pixel, infinity when it has less than
+	 *         two samples and zero when all its samples are equal.
+	 */
+	public double getRelativeError(int x, int y)
+			throws ArrayIndexOutOfBoundsException {
+		return getRelativeError(getIndex(x, y));
+	}
+
+	double getRelativeError(int index) {
+		double weightSum = pixels[index + 3];
+		if (weightSum < 2)
+			return Double.POSITIVE_INFINITY;
+		double error = Math.sqrt(getVariance(index) / weightSum);
+		if (error == 0)
+			return 0;
+		return error / pixels[index + 4];
+	}
+
+	/**
+	 * Returns the root mean square of the relative errors of the pixels of
+	 * this frame buffer, see {@link #getRelativeError(int, int)}.
+	 * 
+	 * @return the relative error of this frame buffer, infinity when a pixel
+	 *         has less than two samples.
+	 */
+	public double getRelativeError() {
+		double sum = 0;
+		for (int index = 0; index < pixels.length; index += CHANNELS) {
+			double error = getRelativeError(index);
+			sum += error * error;
+		}
+		return Math.sqrt(sum / (xResolution * yResolution));
+	}
+
+	/**
+	 * Returns a debug image of the convergence of this frame buffer. The red
+	 * channel of a pixel shows its relative error as a fraction of the given
+	 * threshold, so pixels above the threshold are fully red, and the green
+	 * channel shows its number of samples as a fraction of the largest number
+	 * of samples of a pixel.
+	 * 
+	 * @param threshold
+	 *            the relative error at which a pixel is considered converged.
+	 * @throws IllegalArgumentException
+	 *             when the threshold is smaller than or equal to zero.
+	 * @return the convergence map of this frame buffer.
+	 */
+	public BufferedImage toConvergenceImage(double threshold)
+			throws IllegalArgumentException {
+		if (threshold <= 0)
+			throw new IllegalArgumentException(
+					"the threshold must be larger than zero!");
+		double maxWeight = 0;
+		for (int index = 0; index < pixels.length; index += CHANNELS)
+			maxWeight = Math.max(maxWeight, pixels[index + 3]);
+
+		BufferedImage image = new BufferedImage(xResolution, yResolution,
+				BufferedImage.TYPE_INT_ARGB);
+		int[] rasterData = ((DataBufferInt) image.getRaster().getDataBuffer())
+				.getData();
+		for (int y = 0; y < yResolution; ++y) {
+			int yOffset = (yResolution - y - 1) * xResolution;
+
+			for (int x = 0; x < xResolution; ++x) {
+				int index = getIndex(x, y);
+				double error = Math.min(1, getRelativeError(index) / threshold);
+				double samples = maxWeight == 0 ? 0 : pixels[index + 3] / maxWeight;
+				rasterData[x + yOffset] = new RGBSpectrum(255 * error,
+						255 * samples, 0).toRGB();
+			}
+		}
+		return image;
 	}
 
 	/**
@@ -177,8 +518,7 @@ public class FrameBuffer {
 			int yOffset = (yResolution - y - 1) * xResolution;
 
 			for (int x = 0; x < xResolution; ++x) {
-				Pixel pixel = getPixel(x, y);
-				RGBSpectrum spectrum = pixel.getSpectrum();
+				RGBSpectrum spectrum = getSpectrum(getIndex(x, y));
 
 				int rgb = spectrum.clamp(0, invSensitivity).scale(sensitivity)
 						.pow(invGamma).scale(255).toRGB();
@@ -3,26 +3,34 @@ package film;
 import java.util.Locale;
 
 /**
- * A pixel which stores a weighted sum of spectra.
+ * A view of a pixel of a {@link FrameBuffer}, which stores a weighted sum of
+ * spectra.
+ * 
+ * The channels of the pixel are stored in the frame buffer itself, so a
+ * pixel holds no state of its own. Adding to a pixel is the same as adding to
+ * the frame buffer at the coordinates of the pixel.
  * 
  * @author Niels Billen
  * @version 0.3
  */
 public class Pixel {
 	/**
-	 * The sum of all the spectra.
+	 * The frame buffer holding the channels of this pixel.
 	 */
-	private RGBSpectrum color = RGBSpectrum.BLACK;
+	private final FrameBuffer buffer;
 
 	/**
-	 * The sum of the weights.
+	 * The index of the first channel of this pixel in the frame buffer.
 	 */
-	private double weightSum = 0;
+	private final int index;
 
 	/**
-	 * Creates a new black pixel.
+	 * Creates a view of the pixel of the given frame buffer whose channels
+	 * start at the given index.
 	 */
-	public Pixel() {
+	Pixel(FrameBuffer buffer, int index) {
+		this.buffer = buffer;
+		this.index = index;
 	}
 
 	/**
@@ -43,8 +51,7 @@ public class Pixel {
 	 */
 	public void add(double red, double green, double blue, double weight)
 			throws IllegalArgumentException {
-		this.color = color.add(red * weight, green * weight, blue * weight);
-		this.weightSum += weight;
+		buffer.add(index, red, green, blue, weight);
 	}
 
 	/**
@@ -105,9 +112,17 @@ public class Pixel {
 	 * @return the spectrum of this pixel.
 	 */
 	public RGBSpectrum getSpectrum() {
-		if (weightSum == 0)
-			return RGBSpectrum.BLACK;
-		return color.divide(weightSum);
+		return buffer.getSpectrum(index);
+	}
+
+	/**
+	 * Returns the variance of the luminance of the samples of this pixel.
+	 * 
+	 * @return the variance of the luminance of the samples of this pixel, zero
+	 *         when it has less than two samples.
+	 */
+	public double getVariance() {
+		return buffer.getVariance(index);
 	}
 
 	/*
@@ -0,0 +1,187 @@
+package film;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The orders in which the tiles of an image can be rendered.
+ *
+ * The tiles are expected to be the tiles of a {@link Tile#subdivide(int, int)}
+ * of an image, so all tiles but the last ones of a row or a column have the
+ * preferred size of the subdivision.
+ */
+public enum TileOrder {
+	/**
+	 * Row by row, from the top left corner.
+	 */
+	ROW,
+
+	/**
+	 * Ring by ring around the center of the image, so the center of the image
+	 * is finished first.
+	 */
+	SPIRAL,
+
+	/**
+	 * Along a Hilbert curve over the tiles, so consecutive tiles are
+	 * neighbours and share the geometry they hit.
+	 */
+	HILBERT,
+
+	/**
+	 * The most expensive tiles first, so no thread is left with an expensive
+	 * tile when the others are done.
+	 */
+	COST;
+
+	public static TileOrder parse(String string) {
+		if (string.equals("row")) {
+			return ROW;
+		} else if (string.equals("spiral")) {
+			return SPIRAL;
+		} else if (string.equals("hilbert")) {
+			return HILBERT;
+		} else if (string.equals("cost")) {
+			return COST;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the given tiles in this order.
+	 *
+	 * @param tiles
+	 *            the tiles to order, in any order.
+	 * @param costs
+	 *            the estimated cost of every given tile, only used by
+	 *            {@link #COST}. When null, the tiles are left in the given
+	 *            order.
+	 * @throws IllegalArgumentException
+	 *             when there are costs and not one for every tile.
+	 * @return a new list of the given tiles in this order.
+	 */
+	public List<Tile> order(List<Tile> tiles, long[] costs)
+			throws IllegalArgumentException {
+		final List<Tile> result = new ArrayList<Tile>(tiles);
+		if (result.isEmpty()) {
+			return result;
+		}
+		// the largest tiles have the preferred size of the subdivision
+		int preferredWidth = 0, preferredHeight = 0;
+		for (Tile tile : result) {
+			preferredWidth = Math.max(preferredWidth, tile.getWidth());
+			preferredHeight = Math.max(preferredHeight, tile.getHeight());
+		}
+		final int tileWidth = preferredWidth;
+		final int tileHeight = preferredHeight;
+		int lastColumn = 0, lastRow = 0;
+		for (Tile tile : result) {
+			lastColumn = Math.max(lastColumn, getColumn(tile, tileWidth));
+			lastRow = Math.max(lastRow, getRow(tile, tileHeight));
+		}
+		final int columns = lastColumn + 1;
+		final int rows = lastRow + 1;
+
+		switch (this) {
+		case SPIRAL:
+			Collections.sort(result, new Comparator<Tile>() {
+				@Override
+				public int compare(Tile a, Tile b) {
+					int ring = Integer.compare(getRing(a), getRing(b));
+					return ring != 0 ? ring : Double.compare(getAngle(a), getAngle(b));
+				}
+
+				/**
+				 * Returns the number of tiles between the given tile and the
+				 * center tile, in the sense of the maximum norm.
+				 */
+				private int getRing(Tile tile) {
+					double x = getColumn(tile, tileWidth) - (columns - 1) / 2.0;
+					double y = getRow(tile, tileHeight) - (rows - 1) / 2.0;
+					return (int) Math.ceil(Math.max(Math.abs(x), Math.abs(y)));
+				}
+
+				private double getAngle(Tile tile) {
+					return Math.atan2(getRow(tile, tileHeight) - (rows - 1) / 2.0,
+							getColumn(tile, tileWidth) - (columns - 1) / 2.0);
+				}
+			});
+			break;
+		case HILBERT:
+			int size = 1;
+			while (size < Math.max(columns, rows)) {
+				size *= 2;
+			}
+			final int n = size;
+			Collections.sort(result, new Comparator<Tile>() {
+				@Override
+				public int compare(Tile a, Tile b) {
+					return Long.compare(getHilbertIndex(n, getColumn(a, tileWidth), getRow(a, tileHeight)),
+							getHilbertIndex(n, getColumn(b, tileWidth), getRow(b, tileHeight)));
+				}
+			});
+			break;
+		case COST:
+			if (costs == null) {
+				break;
+			}
+			if (costs.length != tiles.size())
+				throw new IllegalArgumentException("there must be a cost for every tile!");
+			final List<Tile> original = tiles;
+			final long[] estimates = costs;
+			List<Integer> indices = new ArrayList<Integer>();
+			for (int i = 0; i < estimates.length; i++) {
+				indices.add(i);
+			}
+			// a stable sort keeps tiles of equal cost in row order
+			Collections.sort(indices, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer a, Integer b) {
+					return Long.compare(estimates[b], estimates[a]);
+				}
+			});
+			result.clear();
+			for (int index : indices) {
+				result.add(original.get(index));
+			}
+			break;
+		default:
+			break;
+		}
+		return result;
+	}
+
+	private static int getColumn(Tile tile, int tileWidth) {
+		return tile.xStart / tileWidth;
+	}
+
+	private static int getRow(Tile tile, int tileHeight) {
+		return tile.yStart / tileHeight;
+	}
+
+	/**
+	 * Returns the index along a Hilbert curve over a grid of n by n cells of
+	 * the given cell, where n is a power of two.
+	 */
+	static long getHilbertIndex(int n, int x, int y) {
+		long index = 0;
+		for (int s = n / 2; s > 0; s /= 2) {
+			int rx = (x & s) > 0 ? 1 : 0;
+			int ry = (y & s) > 0 ? 1 : 0;
+			index += (long) s * s * ((3 * rx) ^ ry);
+			// rotate the quadrant so the curve is continuous
+			if (ry == 0) {
+				if (rx == 1) {
+					x = n - 1 - x;
+					y = n - 1 - y;
+				}
+				int t = x;
+				x = y;
+				y = t;
+			}
+		}
+		return index;
+	}
+}
@@ -29,7 +29,6 @@ import java.util.concurrent.locks.ReentrantLock;
 import javax.swing.JPanel;
 
 import film.FrameBuffer;
-import film.Pixel;
 import film.RGBSpectrum;
 import film.Tile;
 
@@ -413,6 +412,9 @@ public class ImagePanel extends JPanel implements ComponentListener,
 	 * Notifies this panel that the contents of the frame buffer within the
 	 * given tile has been finished.
 	 * 
+	 * A tile can be finished again, e.g. when a next pass of a progressive
+	 * render added samples to it, which shows its updated contents.
+	 * 
 	 * @note we assume none of the tiles passed along as arguments to this
 	 *       function overlap. Overlapping tiles can possibly result in
 	 *       concurrent modification of resources.
@@ -425,9 +427,15 @@ public class ImagePanel extends JPanel implements ComponentListener,
 
 		// avoid concurrent access to the tiles
 		lock.lock();
-		ReentrantLock tileLock = new ReentrantLock();
-		tiles.add(tile);
-		locks.add(tileLock);
+		ReentrantLock tileLock;
+		int known = tiles.indexOf(tile);
+		if (known == -1) {
+			tileLock = new ReentrantLock();
+			tiles.add(tile);
+			locks.add(tileLock);
+		} else {
+			tileLock = locks.get(known);
+		}
 		lock.unlock();
 
 		// update the tile
@@ -543,8 +551,7 @@ public class ImagePanel extends JPanel implements ComponentListener,
 			int yOffset = (image.getHeight() - y - 1) * image.getWidth();
 
 			for (int x = tile.xStart; x < tile.xEnd; ++x) {
-				Pixel pixel = buffer.getPixel(x, y);
-				RGBSpectrum spectrum = pixel.getSpectrum();
+				RGBSpectrum spectrum = buffer.getSpectrum(x, y);
 
 				int rgb = spectrum.clamp(0, invSensitivity).scale(sensitivity)
 						.pow(invGamma).scale(255).toRGB();
@@ -567,7 +574,7 @@ public class ImagePanel extends JPanel implements ComponentListener,
 				
 		if (x >= 0 && x < buffer.xResolution && yy >= 0
 			&& yy < buffer.yResolution && finished[yy][x]) {
-		RGBSpectrum spectrum = buffer.getPixel(x, yy).getSpectrum();
+		RGBSpectrum spectrum = buffer.getSpectrum(x, yy);
 			for (ImagePanelListener listener : listeners)
 				listener.spectrumAtMouseChanged(spectrum);
 		} else {
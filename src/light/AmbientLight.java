@@ -2,6 +2,7 @@ package light;
 
 import java.util.List;
 
+import film.Color3;
 import film.RGBSpectrum;
 import shape.Intersection;
 import shape.ShapeInstance;
@@ -25,5 +26,10 @@ public class AmbientLight extends LightSource{
 	public RGBSpectrum getColorContribution(Intersection currentClosest, List<ShapeInstance> shapes) {
 		return getIntensity(0.0);
 	}
+	
+	@Override
+	public void addColorContribution(Intersection currentClosest, List<ShapeInstance> shapes, Color3 result) {
+		result.add(intensity);
+	}
 
 }
@@ -1,14 +1,14 @@
 package light;
 
 import java.util.List;
-import java.util.Random;
 
+import film.Color3;
 import film.RGBSpectrum;
 import math.Point;
 import math.Vector;
+import sampling.Sampler;
 import shape.Intersection;
 import shape.ShapeInstance;
-import util.Poplist;
 
 public class AreaLight extends LightSource {
 
@@ -17,7 +17,7 @@ public class AreaLight extends LightSource {
 	private Vector spanningVector1;
 	private Vector spanningVector2; 
 	
-	private static int DEFAULT_SAMPLE_DIMENSION = 4;
+	private static final int DEFAULT_SAMPLE_DIMENSION = 4;
 	
 	
 	public AreaLight(RGBSpectrum intensity, Point leftbottom, Vector spanningVector1, Vector spanningVector2) {
@@ -29,34 +29,60 @@ public class AreaLight extends LightSource {
 	
 	@Override
 	public RGBSpectrum getColorContribution(Intersection currentClosest, List<ShapeInstance> shapes) {
-		Poplist<PointLightSource> samples = sample(DEFAULT_SAMPLE_DIMENSION);
-		RGBSpectrum total = RGBSpectrum.BLACK;
-		for (PointLightSource sample : samples) {
-			total = total.add(sample.getColorContribution(currentClosest, shapes));
-		}
-		return total;
+		Color3 total = new Color3();
+		addColorContribution(currentClosest, shapes, total);
+		return total.toSpectrum();
 	}
-
-	public Poplist<PointLightSource> sample(int sample_dimension) {
-		if (sample_dimension != 1) {
-			DEFAULT_SAMPLE_DIMENSION = sample_dimension;
-		}
-		Poplist<PointLightSource> samples = new Poplist<>();
+	
+	/**
+	 * Adds the contribution of a point light in every stratum of this light,
+	 * all jittered by the same offset taken from the next two dimensions of
+	 * the sampler of the current thread.
+	 */
+	@Override
+	public void addColorContribution(Intersection currentClosest, List<ShapeInstance> shapes, Color3 result) {
+		Sampler sampler = Sampler.getThreadSampler();
+		double u = sampler.get1D();
+		double v = sampler.get1D();
 		for (int i = 0 ; i < DEFAULT_SAMPLE_DIMENSION ; i++) {
 			for (int j = 0 ; j < DEFAULT_SAMPLE_DIMENSION ; j++) {
-				double stratumWidthX = spanningVector1.length()/DEFAULT_SAMPLE_DIMENSION;
-				double stratumWidthY = spanningVector2.length()/DEFAULT_SAMPLE_DIMENSION;
-				Random randomX = new Random();
-				Random randomY = new Random();
-				double jitterX = (randomX.nextDouble() - 0.5) * stratumWidthX;
-				double jitterY = (randomY.nextDouble() - 0.5) * stratumWidthY;
-				// create a ray through the center of the pixel.
-				double x_co = 0.5*stratumWidthX + i*stratumWidthX + jitterX;
-				double y_co = 0.5*stratumWidthX + j*stratumWidthY + jitterY;
-				samples.add(new PointLightSource(leftbottom.add(spanningVector1.scale(x_co).add(spanningVector2).scale(y_co)), intensity.divide(DEFAULT_SAMPLE_DIMENSION)));
+				getPointLight(DEFAULT_SAMPLE_DIMENSION, i, j, u, v).addColorContribution(currentClosest, shapes, result);
 			}
 		}
-		return samples;
+	}
+
+	/**
+	 * Returns a single point light on this light, taken from the next two
+	 * dimensions of the given sampler: the stratum of a grid of the given
+	 * dimension in which they fall, jittered by their position within it.
+	 * 
+	 * Every area light is sampled from its own fixed pair of dimensions, see
+	 * {@link Sampler#getLightDimension(int)}, so the point only depends on the
+	 * pixel and the index of the sample, and the samplers spread the points
+	 * of the samples of a pixel over the strata.
+	 * 
+	 * @return a point light with the intensity of this light divided by the
+	 *         given dimension.
+	 */
+	public PointLightSource sample(int sample_dimension, Sampler sampler) {
+		double u = sampler.get1D() * sample_dimension;
+		double v = sampler.get1D() * sample_dimension;
+		int i = (int) u;
+		int j = (int) v;
+		return getPointLight(sample_dimension, i, j, u - i, v - j);
+	}
+
+	/**
+	 * Returns the point light in the given stratum of a grid of the given
+	 * dimension over this light, at the given position in [0, 1) within the
+	 * stratum.
+	 */
+	private PointLightSource getPointLight(int sample_dimension, int i, int j, double jitterX, double jitterY) {
+		double stratumWidthX = spanningVector1.length()/sample_dimension;
+		double stratumWidthY = spanningVector2.length()/sample_dimension;
+		double x_co = i*stratumWidthX + jitterX*stratumWidthX;
+		double y_co = 0.5*stratumWidthX + j*stratumWidthY + (jitterY - 0.5)*stratumWidthY;
+		return new PointLightSource(leftbottom.add(spanningVector1.scale(x_co).add(spanningVector2).scale(y_co)), intensity.divide(sample_dimension));
 	}
 
 }
@@ -2,9 +2,10 @@ package light;
 
 import java.util.List;
 
+import acceleration.RayPacket;
+import film.Color3;
 import film.RGBSpectrum;
 import math.Point;
-import math.Ray;
 import math.Vector;
 import shape.Intersection;
 import shape.ShapeInstance;
@@ -35,25 +36,76 @@ public class PointLightSource extends LightSource {
 		if (! isVisibleFrom(currentClosest, shapes)) {
 			return new RGBSpectrum(0,0,0);
 		}
-		Ray ray = currentClosest.getRay();
+		return getUnshadowedContribution(currentClosest);
+	}
+	
+	@Override
+	public void addColorContribution(Intersection currentClosest, List<ShapeInstance> shapes, Color3 result) {
+		if (isVisibleFrom(currentClosest, shapes)) {
+			addUnshadowedContribution(currentClosest, result);
+		}
+	}
+	
+	/**
+	 * Returns for each of the given intersections whether this light is
+	 * visible from it, tracing all shadow rays as one packet. Intersections
+	 * which are null are visible.
+	 */
+	public boolean[] areVisibleFrom(Intersection[] intersections, List<ShapeInstance> shapes) {
+		Point[] points = new Point[intersections.length];
+		for (int i = 0; i < intersections.length; i++) {
+			if (intersections[i] != null) {
+				points[i] = intersections[i].getCordinate();
+			}
+		}
+		return arePointsVisibleFrom(position, points, shapes);
+	}
+	
+	/**
+	 * Stores in the given array for each of the given points whether this
+	 * light is visible from it, tracing the shadow rays in the given packet.
+	 * Points which are null are visible.
+	 */
+	public void areVisibleFrom(Point[] points, List<ShapeInstance> shapes, RayPacket packet, boolean[] visible) {
+		arePointsVisibleFrom(position, points, shapes, packet, visible);
+	}
+	
+	private RGBSpectrum getUnshadowedContribution(Intersection currentClosest) {
+		return addUnshadowedContribution(currentClosest, new Color3()).toSpectrum();
+	}
+	
+	/**
+	 * Adds the contribution of this light to the given intersection to the
+	 * given color, as if this light were visible from the intersection.
+	 * 
+	 * This is the shading kernel of the render loop, so it works on the
+	 * components of the directions instead of allocating vectors and spectra.
+	 * 
+	 * @return the given color.
+	 */
+	public Color3 addUnshadowedContribution(Intersection currentClosest, Color3 result) {
+		Vector direction = currentClosest.getRay().direction;
 		Point p = currentClosest.getCordinate();
-		Vector omegaO = ray.direction.scale(-1);
-		Vector omegaI = getPosition().subtract(p);
 		Vector normal = currentClosest.getNormal();
-		if (normal.length() * omegaI.length() == 0) {
-			return new RGBSpectrum(0,0,0);
+		double ix = position.x - p.x;
+		double iy = position.y - p.y;
+		double iz = position.z - p.z;
+		double normalLength = normal.length();
+		double distance = Math.sqrt(ix * ix + iy * iy + iz * iz);
+		if (normalLength * distance == 0) {
+			return result;
 		}
-		double cosTheta = normal.dot(omegaI)/(normal.length() * omegaI.length());
+		double cosTheta = (normal.x * ix + normal.y * iy + normal.z * iz)/(normalLength * distance);
 		if (cosTheta < 0 && currentClosest.getShape().isTwoSided()) {
 			cosTheta = Math.abs(cosTheta);
 		}
-		RGBSpectrum power = getIntensity(omegaI.length());
-		double brdf = math.BRDF.evaluate(omegaI, omegaO);
-		double red = power.red * brdf * cosTheta * currentClosest.getColor().red;
-		double green = power.green * brdf * cosTheta * currentClosest.getColor().green;
-		double blue = power.blue * brdf * cosTheta * currentClosest.getColor().blue;
-		return new RGBSpectrum(red, green, blue);
-		
+		// the falloff of getIntensity(distance), which is never zero here
+		double falloff = 1/(4.0*Math.PI*Math.pow(distance,2));
+		double brdf = math.BRDF.evaluate(ix, iy, iz, -direction.x, -direction.y, -direction.z);
+		RGBSpectrum color = currentClosest.getColor();
+		return result.add(falloff * intensity.red * brdf * cosTheta * color.red,
+				falloff * intensity.green * brdf * cosTheta * color.green,
+				falloff * intensity.blue * brdf * cosTheta * color.blue);
 	}
 	
 	public boolean isVisibleFrom(Intersection i, List<ShapeInstance> shapes) {
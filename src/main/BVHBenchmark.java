@@ -0,0 +1,79 @@
+package main;
+
+import java.util.Random;
+
+import acceleration.BVH;
+import acceleration.BinnedSAHBuilder;
+import acceleration.BuildMode;
+import acceleration.FlatBVH;
+import math.Point;
+import math.Ray;
+import math.Vector;
+import shape.PolygonMesh;
+
+/**
+ * Compares the build time and the quality of the hierarchies produced by every
+ * {@link BuildMode} for a number of meshes.
+ *
+ * The quality is reported as the expected cost of the surface area heuristic
+ * and as the average number of node and primitive tests of random rays
+ * shot from around the mesh towards a random point inside its bounds.
+ *
+ * Usage: BVHBenchmark [mesh.obj ...], defaults to the bunny and the teapot.
+ */
+public class BVHBenchmark {
+
+	private static final int nb_rays = 100000;
+	private static final int nb_runs = 3;
+
+	public static void main(String[] arguments) {
+		String[] meshes = arguments.length > 0 ? arguments : new String[] { "bunny.obj", "teapot.obj" };
+		BuildMode original = BVH.getBuildMode();
+		for (String name : meshes) {
+			PolygonMesh mesh = new PolygonMesh(name);
+			System.out.println(String.format("%s: %d triangles", name, mesh.getNumberOfTriangles()));
+			System.out.println(String.format("%-12s %10s %8s %6s %10s %10s", "mode", "build (ms)",
+					"nodes", "depth", "SAH cost", "tests/ray"));
+			for (BuildMode mode : BuildMode.values()) {
+				BVH.setBuildMode(mode);
+				double best = Double.MAX_VALUE;
+				FlatBVH flat = null;
+				for (int run = 0; run < nb_runs; run++) {
+					long start = System.nanoTime();
+					flat = BVH.build(mesh);
+					best = Math.min(best, (System.nanoTime() - start) / 1e6);
+				}
+				double cost = flat.getSAHCost(BinnedSAHBuilder.DEFAULT_TRAVERSAL_COST,
+						BinnedSAHBuilder.DEFAULT_INTERSECTION_COST);
+				System.out.println(String.format("%-12s %10.1f %8d %6d %10.2f %10.2f", mode, best,
+						flat.getNumberOfNodes(), flat.getDepth(), cost, getAverageTests(flat)));
+			}
+			System.out.println();
+		}
+		BVH.setBuildMode(original);
+	}
+
+	/**
+	 * Returns the average number of tests of rays from a sphere around the
+	 * hierarchy towards a random point inside its bounds. The same rays are
+	 * used for every hierarchy of the same mesh.
+	 */
+	private static double getAverageTests(FlatBVH flat) {
+		Random random = new Random(0);
+		Point lb = flat.createNewBV().getLeftBottom();
+		Point rt = flat.createNewBV().getRightTop();
+		Point center = flat.getCentric();
+		double radius = rt.subtract(lb).length();
+		FlatBVH.resetTestCount();
+		for (int i = 0; i < nb_rays; i++) {
+			Vector offset = new Vector(random.nextGaussian(), random.nextGaussian(),
+					random.nextGaussian());
+			Point origin = center.add(offset.scale(radius / offset.length()));
+			Point target = new Point(lb.x + random.nextDouble() * (rt.x - lb.x),
+					lb.y + random.nextDouble() * (rt.y - lb.y),
+					lb.z + random.nextDouble() * (rt.z - lb.z));
+			flat.getIntersection(new Ray(origin, target.subtract(origin)));
+		}
+		return FlatBVH.getTestCount() / (double) nb_rays;
+	}
+}
@@ -13,5 +13,40 @@ public class RenderConstants {
 	public static final Vector DEFAULT_LOOKUP = new Vector(0,1,0);
 	public static final int DEFAULT_FOV = 60;
 	public static final Double DEFAULT_GAMMA = 2.2;
+	/**
+	 * The width and height of the blocks of pixels whose rays are traced
+	 * together as one packet.
+	 */
+	public static final int PACKET_SIZE = 8;
+	/**
+	 * The default width and height of the tiles the image is divided in.
+	 */
+	public static final int DEFAULT_TILE_SIZE = 64;
+	/**
+	 * The number of samples a pixel takes before its error is estimated, both
+	 * by a progressive render checking its noise target and by adaptive
+	 * sampling.
+	 */
+	public static final int MIN_ERROR_SAMPLES = 4;
+	/**
+	 * The relative error shown as fully red in a convergence map, when there
+	 * is neither an adaptive threshold nor a noise target.
+	 */
+	public static final double DEFAULT_CONVERGENCE_THRESHOLD = 0.05;
+	/**
+	 * The largest number of samples per pixel a render with a time or a ray
+	 * budget takes, when it is not given a sample budget.
+	 */
+	public static final int MAX_BUDGET_SAMPLES = 1024;
+	/**
+	 * The number of steps in which the progress of a render with a time or a
+	 * ray budget is reported.
+	 */
+	public static final int BUDGET_PROGRESS_STEPS = 1000;
+	/**
+	 * The default minimum time in seconds between two writes of the
+	 * checkpoint of a render.
+	 */
+	public static final double DEFAULT_CHECKPOINT_INTERVAL = 60.0;
 	
 }
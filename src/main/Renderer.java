@@ -5,21 +5,24 @@ import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.imageio.ImageIO;
 
-import acceleration.BV;
+import acceleration.BVH;
+import acceleration.FlatBVH;
+import acceleration.RayPacket;
 import camera.PerspectiveCamera;
+import film.Checkpoint;
+import film.Color3;
 import film.FrameBuffer;
 import film.RGBSpectrum;
 import film.Tile;
+import film.TileOrder;
 import gui.ProgressReporter;
 import gui.RenderFrame;
 import light.AmbientLight;
@@ -30,17 +33,16 @@ import math.Point;
 import math.Ray;
 import math.Transformation;
 import math.Vector;
-import sampling.Sample;
+import sampling.Sampler;
+import sampling.SamplerType;
 import scene.Scene;
 import scene.SceneBuilder;
-import shape.BVInstance;
+import shape.Hit;
 import shape.Intersection;
 import shape.PolygonMesh;
-import shape.Shape;
 import shape.ShapeInstance;
 import texture.UniformColorTexture;
 import util.Pair;
-import util.Poplist;
 
 /**
  * Entry point of your renderer.
@@ -58,6 +60,16 @@ public class Renderer {
 	 * @throws InvocationTargetException
 	 */
 	public static void main(String[] arguments) {
+		// the hierarchies are built with the scenes, some of which are built
+		// while the arguments are parsed, so their width and the triangle test
+		// of their meshes are set first
+		for (int i = 0; i + 1 < arguments.length; ++i) {
+			if (arguments[i].equals("-bvhwidth"))
+				BVH.setWidth(Integer.parseInt(arguments[i + 1]));
+			else if (arguments[i].equals("-watertight"))
+				PolygonMesh.setDefaultWatertight(Boolean.parseBoolean(arguments[i + 1]));
+		}
+
 		Map<String, Object> options = new HashMap<>();
 		options.put("width", 		RenderConstants.DEFAULT_WIDTH);
 		options.put("height", 		RenderConstants.DEFAULT_HEIGHT);
@@ -69,6 +81,20 @@ public class Renderer {
 		options.put("gamma", 		RenderConstants.DEFAULT_GAMMA);
 		options.put("mode", 		RenderMode.ACCELERATION);
 		options.put("sample_dim", 	1);
+		options.put("sampler", 		SamplerType.STRATIFIED);
+		options.put("seed", 		0L);
+		options.put("tile_size", 	RenderConstants.DEFAULT_TILE_SIZE);
+		options.put("tile_order", 	TileOrder.SPIRAL);
+		options.put("progressive", 	false);
+		options.put("spp", 			0);
+		options.put("time", 		0.0);
+		options.put("rays", 		0L);
+		options.put("noise", 		0.0);
+		options.put("adaptive", 	0.0);
+		options.put("convergence", 	null);
+		options.put("checkpoint", 	null);
+		options.put("interval", 	RenderConstants.DEFAULT_CHECKPOINT_INTERVAL);
+		options.put("resume", 		false);
 		options.put("scene", 		SceneBuilder.getDragon());
 		options.put("filename", 	"output.png");
 		options.put("gui", 			true);
@@ -115,7 +141,35 @@ public class Renderer {
 					} else if (flag.equals("-output")) {
 						options.put("filename", arguments[++i]);
 					} else if (flag.equals("-samples")) {
-						options.put("sample_dimension", Integer.parseInt(arguments[++i]));
+						options.put("sample_dim", Integer.parseInt(arguments[++i]));
+					} else if (flag.equals("-sampler")) {
+						options.put("sampler", SamplerType.parse(arguments[++i]));
+					} else if (flag.equals("-seed")) {
+						options.put("seed", Long.parseLong(arguments[++i]));
+					} else if (flag.equals("-tile")) {
+						options.put("tile_size", Integer.parseInt(arguments[++i]));
+					} else if (flag.equals("-order")) {
+						options.put("tile_order", TileOrder.parse(arguments[++i]));
+					} else if (flag.equals("-progressive")) {
+						options.put("progressive", Boolean.parseBoolean(arguments[++i]));
+					} else if (flag.equals("-spp")) {
+						options.put("spp", Integer.parseInt(arguments[++i]));
+					} else if (flag.equals("-time")) {
+						options.put("time", Double.parseDouble(arguments[++i]));
+					} else if (flag.equals("-rays")) {
+						options.put("rays", Long.parseLong(arguments[++i]));
+					} else if (flag.equals("-noise")) {
+						options.put("noise", Double.parseDouble(arguments[++i]));
+					} else if (flag.equals("-adaptive")) {
+						options.put("adaptive", Double.parseDouble(arguments[++i]));
+					} else if (flag.equals("-convergence")) {
+						options.put("convergence", arguments[++i]);
+					} else if (flag.equals("-checkpoint")) {
+						options.put("checkpoint", arguments[++i]);
+					} else if (flag.equals("-interval")) {
+						options.put("interval", Double.parseDouble(arguments[++i]));
+					} else if (flag.equals("-resume")) {
+						options.put("resume", Boolean.parseBoolean(arguments[++i]));
 					} else if (flag.equals("-input")) {
 						PolygonMesh p = new PolygonMesh(arguments[++i]);
 						ShapeInstance inst = new ShapeInstance(p,
@@ -128,6 +182,9 @@ public class Renderer {
 						options.put("scene", new Scene(lightsources, shapes));
 					} else if (flag.equals("-mode")) {
 						options.put("mode", RenderMode.parse(arguments[++i]));
+					} else if (flag.equals("-bvhwidth") || flag.equals("-watertight")) {
+						// set before the arguments are parsed
+						++i;
 					} else if (flag.equals("-help")) {
 						System.out
 								.println("usage: java -jar cgpracticum.jar\n"
@@ -139,6 +196,23 @@ public class Renderer {
 										+ "  -destination <point>  destination for the camera\n"
 										+ "  -lookup <vector>      up direction for the camera\n"
 										+ "  -output <string>      filename for the image\n"
+										+ "  -samples <integer>    samples per pixel along every dimension\n"
+										+ "  -sampler <string>     stratified, halton or sobol\n"
+										+ "  -seed <long>          seed of the sampler\n"
+										+ "  -tile <integer>       width and height of the tiles\n"
+										+ "  -order <string>       row, spiral, hilbert or cost\n"
+										+ "  -progressive <boolean> whether to render the frame in passes of one sample\n"
+										+ "  -spp <integer>        samples per pixel, the sample budget of a progressive render\n"
+										+ "  -time <double>        time budget in seconds, renders progressively\n"
+										+ "  -rays <long>          budget of traced rays, renders progressively\n"
+										+ "  -noise <double>       relative error at which a progressive render stops\n"
+										+ "  -adaptive <double>    relative error at which a pixel stops taking samples\n"
+										+ "  -convergence <string> filename for the convergence map of the image\n"
+										+ "  -checkpoint <string>  filename for periodic checkpoints of the render\n"
+										+ "  -interval <double>    minimum time in seconds between two checkpoints\n"
+										+ "  -resume <boolean>     whether to continue from the checkpoint\n"
+										+ "  -bvhwidth <integer>   children per node of the hierarchies: 2, 4 or 8\n"
+										+ "  -watertight <boolean> whether rays never slip between the triangles of meshes\n"
 										+ "  -gui <boolean>        whether to start a graphical user interface\n"
 										+ "  -quiet <boolean>      whether to print the progress bar");
 						return;
@@ -180,6 +254,28 @@ public class Renderer {
 		final Point destination 		= (Point) options.get("destination");
 		final Vector lookup 			= (Vector) options.get("lookup");
 		final int sample_dimension 		= (int) options.get("sample_dim");
+		final SamplerType sampler_type 	= (SamplerType) options.get("sampler");
+		final long seed 				= (long) options.get("seed");
+		final int packet_size 			= RenderConstants.PACKET_SIZE;
+		final int tile_size 			= (int) options.get("tile_size");
+		final TileOrder tile_order 		= (TileOrder) options.get("tile_order");
+		final int spp 					= (int) options.get("spp");
+		final double time_budget 		= (double) options.get("time");
+		final long ray_budget 			= (long) options.get("rays");
+		// a render with a time or a ray budget takes as many passes as it can
+		// afford, so it always has an image ready
+		final boolean budgeted 			= time_budget > 0 || ray_budget > 0;
+		final boolean progressive 		= (boolean) options.get("progressive") || budgeted;
+		final double noise_target 		= (double) options.get("noise");
+		final double adaptive 			= (double) options.get("adaptive");
+		final String convergence 		= (String) options.get("convergence");
+		final String checkpoint_file 	= (String) options.get("checkpoint");
+		final double interval 			= (double) options.get("interval");
+		final boolean resume 			= (boolean) options.get("resume");
+		// without a sample budget, a pixel takes a grid of samples, or as many
+		// as the other budgets allow
+		final int samples_per_pixel 	= spp > 0 ? spp : budgeted ? RenderConstants.MAX_BUDGET_SAMPLES
+															: sample_dimension * sample_dimension;
 		final RenderMode mode 			= (RenderMode) options.get("mode");
 		final PerspectiveCamera camera 	= new PerspectiveCamera(width, height, origin, destination, lookup, fov);
 		final boolean gui 				= (boolean) options.get("gui");
@@ -212,6 +308,45 @@ public class Renderer {
 		if (filename.isEmpty())
 			throw new IllegalArgumentException("the filename cannot be the "
 					+ "empty string!");
+		if (sampler_type == null)
+			throw new IllegalArgumentException("the sampler must be "
+					+ "stratified, halton or sobol!");
+		if (tile_size <= 0)
+			throw new IllegalArgumentException("the tile size cannot be "
+					+ "smaller than or equal to zero!");
+		if (tile_order == null)
+			throw new IllegalArgumentException("the tile order must be "
+					+ "row, spiral, hilbert or cost!");
+		if (spp < 0)
+			throw new IllegalArgumentException("the sample budget cannot be "
+					+ "smaller than zero!");
+		if (time_budget < 0)
+			throw new IllegalArgumentException("the time budget cannot be "
+					+ "smaller than zero!");
+		if (ray_budget < 0)
+			throw new IllegalArgumentException("the ray budget cannot be "
+					+ "smaller than zero!");
+		if (sample_dimension <= 0)
+			throw new IllegalArgumentException("the number of samples cannot be "
+					+ "smaller than or equal to zero!");
+		if (noise_target < 0)
+			throw new IllegalArgumentException("the noise target cannot be "
+					+ "smaller than zero!");
+		if (adaptive < 0)
+			throw new IllegalArgumentException("the adaptive threshold cannot be "
+					+ "smaller than zero!");
+		if (convergence != null && convergence.isEmpty())
+			throw new IllegalArgumentException("the filename of the convergence "
+					+ "map cannot be the empty string!");
+		if (checkpoint_file != null && checkpoint_file.isEmpty())
+			throw new IllegalArgumentException("the filename of the checkpoint "
+					+ "cannot be the empty string!");
+		if (interval < 0)
+			throw new IllegalArgumentException("the checkpoint interval cannot be "
+					+ "smaller than zero!");
+		if (resume && checkpoint_file == null)
+			throw new IllegalArgumentException("a render can only be resumed "
+					+ "from a checkpoint!");
 
 		/**********************************************************************
 		 * Initialize the camera and graphical user interface
@@ -221,9 +356,12 @@ public class Renderer {
 		// initialize the frame buffer
 		final FrameBuffer buffer = new FrameBuffer(width, height);
 
-		// initialize the progress reporter
-		final ProgressReporter reporter = new ProgressReporter("Rendering", 40,
-				width * height, quiet);
+		// initialize the progress reporter, a progressive render reports its
+		// progress towards the sample budget per tile, and a render with a
+		// time or a ray budget towards the first budget it reaches per pass
+		final ProgressReporter reporter = new ProgressReporter("Rendering", 40, budgeted
+				? RenderConstants.BUDGET_PROGRESS_STEPS
+				: (int) Math.min(Integer.MAX_VALUE, (long) width * height * (progressive ? samples_per_pixel : 1)), quiet);
 
 		// initialize the graphical user interface
 		RenderFrame userinterface;
@@ -244,129 +382,259 @@ public class Renderer {
 		 * Multi-threaded rendering of the scene
 		 *********************************************************************/
 
-		final ExecutorService service = Executors.newFixedThreadPool(Runtime
-				.getRuntime().availableProcessors());
-
-		// subdivide the buffer in equal sized tiles
-		for (final Tile tile : buffer.subdivide(64, 64)) {
-			// create a thread which renders the specific tile
-			Thread thread = new Thread() {
-				/*
-				 * (non-Javadoc)
-				 * 
-				 * @see java.lang.Thread#run()
-				 */
-				@Override
-				public void run() {
-					try {
-						// iterate over the contents of the tile 
-						double stratumWidth = 1.0/sample_dimension;
-						for (int y = tile.yStart; y < tile.yEnd; ++y) {
-							for (int x = tile.xStart; x < tile.xEnd; ++x) {
-								Map<AreaLight, Poplist<PointLightSource>> lightsourceSamples = new HashMap<>();
-								for (int i =0; i < sample_dimension ; i++) {
-									for (int j = 0; j < sample_dimension ; j++) {
-										Ray ray;
-										if (sample_dimension != 1) {
-											Random randomX = new Random();
-											Random randomY = new Random();
-											double jitterX = (randomX.nextDouble() - 0.5) * stratumWidth;
-											double jitterY = (randomY.nextDouble() - 0.5) * stratumWidth;
-											// create a ray through the center of the pixel.
-											double x_co = x + 0.5*stratumWidth + i*stratumWidth + jitterX;
-											double y_co = y + 0.5*stratumWidth + j*stratumWidth + jitterY;
-											ray = camera.generateRay(new Sample(x_co, y_co));
-										} else {
-											ray = camera.generateRay(new Sample(x+0.5, y+0.5));
+		final TileScheduler scheduler = new TileScheduler();
+
+		// subdivide the buffer in tiles of the requested size, rendered in the
+		// requested order
+		List<Tile> tiles = new ArrayList<>(buffer.subdivide(tile_size, tile_size));
+		
+		// the checkpoint refers to the tiles in the order of the subdivision,
+		// and is only resumed by a render of the same frame
+		Checkpoint checkpoint = null;
+		if (checkpoint_file != null) {
+			String settings = String.format("%d %d %s %s %d %d %d %d %s %s %s %s %d %d %d",
+					width, height, mode, sampler_type, seed, samples_per_pixel, sample_dimension,
+					tile_size, adaptive, origin, destination, lookup, fov, shapes.size(),
+					lightsources.size());
+			checkpoint = new Checkpoint(new File(checkpoint_file), settings, buffer, tiles, interval);
+			if (resume) {
+				try {
+					if (checkpoint.load()) {
+						System.out.println(String.format("resumed from %s at %.2f samples per pixel",
+								checkpoint_file, buffer.getSamplesPerPixel()));
+					} else {
+						System.out.println(String.format("could not resume from %s, it belongs "
+								+ "to a different render", checkpoint_file));
+					}
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+		final Checkpoint progress = checkpoint;
+		long[] costs = null;
+		if (tile_order == TileOrder.COST) {
+			costs = estimateCosts(tiles, camera, shapes);
+		}
+		tiles = tile_order.order(tiles, costs);
+
+		// the first sample and the number of samples of every pixel rendered by
+		// the current pass
+		final int[] pass = { 0, samples_per_pixel };
+		// the number of camera and shadow rays traced so far
+		final AtomicLong traced_rays = new AtomicLong();
+
+		TileScheduler.TileRenderer renderer = new TileScheduler.TileRenderer() {
+			@Override
+			public void render(Tile tile) {
+				try {
+					// every thread samples its own pixels, and the samples
+					// only depend on the seed, so a frame is reproducible
+					Sampler sampler = sampler_type.create(seed, samples_per_pixel);
+					Sampler.setThreadSampler(sampler);
+					// the color of a sample is accumulated in place
+					Color3 totalColor = new Color3();
+					long camera_rays = 0;
+					LightSource.resetShadowRayCount();
+					// the rays of a block and the results of tracing them,
+					// reused for every block and sample of the tile
+					Block block = new Block(packet_size * packet_size, lightsources);
+					Ray[] rays = block.rays;
+					// a resumed tile continues after the samples it finished
+					int first = progress == null ? pass[0] : Math.max(pass[0], progress.getSamples(tile));
+					// iterate over the contents of the tile in blocks of
+					// pixels, whose rays are traced as one packet
+					for (int yBlock = tile.yStart; yBlock < tile.yEnd; yBlock += packet_size) {
+						for (int xBlock = tile.xStart; xBlock < tile.xEnd; xBlock += packet_size) {
+							int blockWidth = Math.min(packet_size, tile.xEnd - xBlock);
+							int blockSize = blockWidth * Math.min(packet_size, tile.yEnd - yBlock);
+							for (int index = first; index < pass[0] + pass[1]; index++) {
+								Arrays.fill(rays, blockSize, rays.length, null);
+								boolean active = false;
+								for (int p = 0; p < blockSize; p++) {
+									int x = xBlock + p % blockWidth;
+									int y = yBlock + p / blockWidth;
+									if (!isActive(x, y, index)) {
+										// the pixel has converged, its ray is null
+										rays[p] = null;
+										continue;
+									}
+									active = true;
+									camera_rays += 1;
+									if (samples_per_pixel != 1) {
+										// create a ray through the position the sampler gives
+										sampler.startSample(x, y, index);
+										double x_co = x + sampler.get1D();
+										double y_co = y + sampler.get1D();
+										rays[p] = camera.generateRay(x_co, y_co);
+									} else {
+										rays[p] = camera.generateRay(x+0.5, y+0.5);
+									}
+								}
+								if (!active) {
+									continue;
+								}
+								
+								if (mode.equals(RenderMode.ACCELERATION)) {
+									// the cost is visualised per ray, so trace them one by one
+									for (int p = 0; p < blockSize; p++) {
+										if (rays[p] == null) {
+											continue;
 										}
-										
-										// test the scene on intersections
-										Pair<Intersection, Integer> closestIntersection = getClosestIntersection(ray, shapes);
-										
-										Intersection currentClosest = closestIntersection.getFirst();
+										Pair<Intersection, Integer> closestIntersection = getClosestIntersection(rays[p], shapes);
 										int nb_of_calculated_intersections = closestIntersection.getSecond();
-										//Intersection currentClosest = getClosestIntersection(ray, shapes);
-										// add a color contribution to the pixel
-										
-										if (currentClosest != null) {
-											RGBSpectrum totalColor = new RGBSpectrum(0,0,0);
-											if (mode.equals(RenderMode.STANDARD)) {
-												
-												for (LightSource ls : lightsources) {
-													if (ls instanceof AreaLight && sample_dimension != 1) {
-														Poplist<PointLightSource> ps = lightsourceSamples.get((AreaLight) ls);
-														if (ps == null || ps.size() == 0 ) {
-															ps = ((AreaLight) ls).sample(sample_dimension);
-															lightsourceSamples.put((AreaLight) ls, ps) ;
-														}
-														
-														PointLightSource p = ps.pop();
-														totalColor = totalColor.add(p.getColorContribution(currentClosest, shapes)).scale(sample_dimension);
-														
-													} else {
-														
-														RGBSpectrum colorContribution = ls.getColorContribution(currentClosest, shapes);
-														totalColor = totalColor.add(colorContribution);
-														
+										add(xBlock + p % blockWidth, yBlock + p / blockWidth,
+												0, 0, nb_of_calculated_intersections);
+									}
+									continue;
+								}
+								
+								// test the scene on intersections
+								Intersection[] closest = block.trace(shapes);
+								
+								// the shadow rays towards every point light are traced as one packet
+								if (mode.equals(RenderMode.STANDARD)) {
+									block.traceShadows(lightsources, shapes);
+								}
+								
+								for (int p = 0; p < blockSize; p++) {
+									int x = xBlock + p % blockWidth;
+									int y = yBlock + p / blockWidth;
+									Intersection currentClosest = closest[p];
+									// add a color contribution to the pixel
+									
+									if (rays[p] != null && currentClosest == null) {
+										// a miss is a black sample, so the error of
+										// the background is estimated as well
+										add(x, y, 0, 0, 0);
+									} else if (currentClosest != null) {
+										totalColor.clear();
+										if (mode.equals(RenderMode.STANDARD)) {
+											sampler.startSample(x, y, index);
+											// every area light takes its own pair of dimensions
+											int area = 0;
+											
+											for (int l = 0; l < lightsources.size(); l++) {
+												LightSource ls = lightsources.get(l);
+												if (ls instanceof AreaLight) {
+													sampler.setDimension(Sampler.getLightDimension(area++));
+												}
+												if (ls instanceof AreaLight && sample_dimension != 1) {
+													PointLightSource ps_sample = ((AreaLight) ls).sample(sample_dimension, sampler);
+													ps_sample.addColorContribution(currentClosest, shapes, totalColor);
+													totalColor.scale(sample_dimension);
+													
+												} else if (ls instanceof PointLightSource) {
+													
+													if (block.visible[l][p]) {
+														((PointLightSource) ls).addUnshadowedContribution(currentClosest, totalColor);
 													}
+													
+												} else {
+													
+													ls.addColorContribution(currentClosest, shapes, totalColor);
+													
 												}
-												buffer.getPixel(x, y).add(totalColor);
-											} else if (mode.equals(RenderMode.NORMAL_MAP)) {
-												buffer.getPixel(x, y).add(getFalseColor(currentClosest));
-											} 
-										}
-										if (mode.equals(RenderMode.ACCELERATION)) {
-											buffer.getPixel(x, y).add(new RGBSpectrum(0, 0, nb_of_calculated_intersections));
-										}
+											}
+											add(x, y, totalColor.red, totalColor.green, totalColor.blue);
+										} else if (mode.equals(RenderMode.NORMAL_MAP)) {
+											RGBSpectrum falseColor = getFalseColor(currentClosest);
+											add(x, y, falseColor.red, falseColor.green, falseColor.blue);
+										} 
 									}
 								}
-								
 							}
+							
 						}
-						
-
-						// update the graphical user interface
-						if (frame != null)
-							frame.panel.finished(tile);
-					} catch (Exception e) {
-						e.printStackTrace();
-						System.exit(1);
-					} catch (StackOverflowError e) {
-						e.printStackTrace();
-						System.exit(1);
-					} catch (OutOfMemoryError e) {
-						e.printStackTrace();
-						System.exit(1);
 					}
+					
 
-					// update the progress reporter
-					reporter.update(tile.getWidth() * tile.getHeight());
+					traced_rays.addAndGet(camera_rays + LightSource.getShadowRayCount());
 
+					// record the finished samples of the tile, a failing
+					// checkpoint does not stop the render
+					if (progress != null && first < pass[0] + pass[1]) {
+						try {
+							progress.finished(tile, pass[0] + pass[1]);
+						} catch (IOException e) {
+							e.printStackTrace();
+						}
+					}
+
+					// update the graphical user interface
+					if (frame != null)
+						frame.panel.finished(tile);
+				} catch (Exception e) {
+					e.printStackTrace();
+					System.exit(1);
+				} catch (StackOverflowError e) {
+					e.printStackTrace();
+					System.exit(1);
+				} catch (OutOfMemoryError e) {
+					e.printStackTrace();
+					System.exit(1);
 				}
-				
-				
-				private RGBSpectrum getFalseColor(Intersection currentClosest) {
-					Vector normal =currentClosest.getNormal().scale(0.5);
-					return new RGBSpectrum(255*(0.5 + 0.5*normal.x), 255*(0.5 + 0.5*normal.y), (255*(0.5 + 0.5*normal.z)));
+
+				// update the progress reporter
+				if (!budgeted) {
+					reporter.update(tile.getWidth() * tile.getHeight());
 				}
 
-				
-			};
+			}
 			
-			service.submit(thread);
-		}
+			
+			/**
+			 * Adds the given sample to the frame buffer.
+			 */
+			private void add(int x, int y, double red, double green, double blue) {
+				buffer.add(x, y, red, green, blue, 1.0);
+			}
+			
+			/**
+			 * Returns whether the pixel at the given coordinates takes the
+			 * sample with the given index. With adaptive sampling, a pixel
+			 * stops taking samples once its relative error drops below the
+			 * threshold, so the remaining samples are spent on the pixels
+			 * which are still noisy. Only the thread rendering the tile of
+			 * the pixel adds samples to it, so its error is up to date.
+			 */
+			private boolean isActive(int x, int y, int index) {
+				return adaptive == 0 || index < RenderConstants.MIN_ERROR_SAMPLES
+						|| buffer.getRelativeError(x, y) > adaptive;
+			}
+			
+			private RGBSpectrum getFalseColor(Intersection currentClosest) {
+				Vector normal =currentClosest.getNormal().scale(0.5);
+				return new RGBSpectrum(255*(0.5 + 0.5*normal.x), 255*(0.5 + 0.5*normal.y), (255*(0.5 + 0.5*normal.z)));
+			}
+
+			
+		};
 
 		// signal the reporter that rendering has started
 		reporter.start();
 
-		// execute the threads
-		service.shutdown();
-
-		// wait until the threads have finished
+		// render the tiles on the workers and wait until they have finished
 		try {
-			service.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+			if (!progressive) {
+				scheduler.render(tiles, renderer);
+			} else {
+				renderProgressively(scheduler, tiles, renderer, pass,
+						checkpoint == null ? 0 : checkpoint.getSamples(), samples_per_pixel,
+						time_budget, ray_budget, traced_rays, noise_target, buffer, tile_order,
+						budgeted ? reporter : null);
+			}
 		} catch (InterruptedException e) {
 			e.printStackTrace();
+		} finally {
+			scheduler.shutdown();
+		}
+		if (checkpoint != null) {
+			try {
+				checkpoint.store();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
 		}
 		// signal the reporter that the task is done
 		reporter.done();
@@ -381,97 +649,242 @@ public class Renderer {
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
+		
+		// the convergence map shows the error against the adaptive threshold,
+		// or against the noise target without one
+		if (convergence != null) {
+			double threshold = adaptive > 0 ? adaptive : noise_target > 0 ? noise_target
+					: RenderConstants.DEFAULT_CONVERGENCE_THRESHOLD;
+			try {
+				ImageIO.write(buffer.toConvergenceImage(threshold), "png", new File(convergence));
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	/**
+	 * Renders the given tiles in passes of one sample per pixel, so the whole
+	 * frame is previewed after the first pass and refined by every next pass.
+	 * 
+	 * The passes stop when the sample budget is reached, when the next pass
+	 * would exceed the time budget (in seconds, zero for none) or the ray
+	 * budget (zero for none), or when the relative error of the frame buffer
+	 * drops below the noise target (zero for none). The cost of the next pass
+	 * is predicted from the previous pass, which is an upper bound with
+	 * adaptive sampling since converged pixels drop out. The first pass is
+	 * always rendered, so there is an image however tight the budgets. The
+	 * noise is only checked from {@link RenderConstants#MIN_ERROR_SAMPLES}
+	 * passes on, since the error estimated from a few samples is unreliable.
+	 * With the cost order, the tiles of a pass are ordered by the time they
+	 * took in the previous pass.
+	 * 
+	 * The number of passes, the traced rays and the achieved number of
+	 * samples per pixel are reported when the passes stop. When a reporter
+	 * is given, it is updated after every pass with the progress towards the
+	 * budget closest to being reached, in
+	 * {@link RenderConstants#BUDGET_PROGRESS_STEPS} steps.
+	 * 
+	 * A resumed render starts at the first pass some tile has not finished.
+	 */
+	private static void renderProgressively(TileScheduler scheduler, List<Tile> tiles,
+			TileScheduler.TileRenderer renderer, int[] pass, int first_pass, int samples_per_pixel,
+			double time_budget, long ray_budget, AtomicLong traced_rays, double noise_target,
+			FrameBuffer buffer, TileOrder tile_order, ProgressReporter reporter)
+			throws InterruptedException {
+		long start = System.nanoTime();
+		String reason = "the sample budget is reached";
+		int passes = first_pass;
+		int reported = 0;
+		while (passes < samples_per_pixel) {
+			pass[0] = passes;
+			pass[1] = 1;
+			long passStart = System.nanoTime();
+			long raysBefore = traced_rays.get();
+			long[] costs = scheduler.render(tiles, renderer);
+			passes += 1;
+			if (tile_order == TileOrder.COST) {
+				tiles = tile_order.order(tiles, costs);
+			}
+			long now = System.nanoTime();
+			long rays = traced_rays.get();
+			if (reporter != null) {
+				double progress = (double) passes / samples_per_pixel;
+				if (time_budget > 0) {
+					progress = Math.max(progress, (now - start) / 1e9 / time_budget);
+				}
+				if (ray_budget > 0) {
+					progress = Math.max(progress, (double) rays / ray_budget);
+				}
+				int steps = (int) (Math.min(1, progress) * RenderConstants.BUDGET_PROGRESS_STEPS);
+				reporter.update(steps - reported);
+				reported = Math.max(reported, steps);
+			}
+			if (passes == samples_per_pixel) {
+				break;
+			}
+			if (time_budget > 0 && (2 * now - passStart - start) / 1e9 > time_budget) {
+				reason = "the time budget is reached";
+				break;
+			}
+			if (ray_budget > 0 && 2 * rays - raysBefore > ray_budget) {
+				reason = "the ray budget is reached";
+				break;
+			}
+			if (noise_target > 0 && passes >= RenderConstants.MIN_ERROR_SAMPLES
+					&& buffer.getRelativeError() <= noise_target) {
+				reason = "the noise target is reached";
+				break;
+			}
+		}
+		System.out.println(String.format("rendered %d passes in %.2f seconds, %d rays, "
+				+ "%.2f samples per pixel: %s", passes - first_pass, (System.nanoTime() - start) / 1e9,
+				traced_rays.get(), buffer.getSamplesPerPixel(), reason));
+	}
+	
+	/**
+	 * Estimates the cost of every given tile with a low resolution pre-pass,
+	 * which traces a single ray through the center of every block of
+	 * {@link RenderConstants#PACKET_SIZE} by {@link RenderConstants#PACKET_SIZE}
+	 * pixels and counts the intersection tests it takes.
+	 */
+	private static long[] estimateCosts(List<Tile> tiles, PerspectiveCamera camera, List<ShapeInstance> shapes) {
+		int step = RenderConstants.PACKET_SIZE;
+		long[] costs = new long[tiles.size()];
+		for (int t = 0; t < tiles.size(); t++) {
+			Tile tile = tiles.get(t);
+			for (int y = tile.yStart; y < tile.yEnd; y += step) {
+				for (int x = tile.xStart; x < tile.xEnd; x += step) {
+					double x_co = x + Math.min(step, tile.xEnd - x) / 2.0;
+					double y_co = y + Math.min(step, tile.yEnd - y) / 2.0;
+					Ray ray = camera.generateRay(x_co, y_co);
+					costs[t] += getClosestIntersection(ray, shapes).getSecond();
+				}
+			}
+		}
+		return costs;
 	}
 	
 	public static Pair<Intersection, Integer> getClosestIntersection(Ray ray, List<ShapeInstance> shapes) {
-		Intersection currentClosest = null;
+		Hit hit = new Hit(ray);
+		ShapeInstance closestShape = null;
 		int nb = 0;
+		FlatBVH.resetTestCount();
 		for (ShapeInstance shape : shapes) {
-			Intersection i = shape.getIntersection(ray);
-			// get the intersection with the right low-level shapeInstance of the MultiLayeredBVInstance
 			nb += 1;
-			
-			if (i != null) {
-				if (i.getShape() instanceof BV) {
-					
-					List<Pair<BVInstance, Intersection>> children = new ArrayList<>();
-					children.add(new Pair<>(new BVInstance((BV) i.getShape(),
-							shape.transformation, shape.texture), i));
-					while (! children.isEmpty()) {
-						Pair<BVInstance, Intersection> pair = children.get(0);
-						BVInstance bv_wrapper = pair.getFirst();
-						Intersection bv_intersection = pair.getSecond();
-						
-						if (bv_intersection != null && (currentClosest == null || bv_intersection.getDistance() <= currentClosest.getDistance())) {
-							if (bv_wrapper.bv.getChildren().size() != 0) {
-								BVInstance child1 = new BVInstance(bv_wrapper.bv.getChildren().get(0),
-										bv_wrapper.transformation, bv_wrapper.texture);
-								BVInstance child2 = new BVInstance(bv_wrapper.bv.getChildren().get(1),
-										bv_wrapper.transformation, bv_wrapper.texture);
-								nb += 2;
-								Intersection int1 = child1.getIntersection(ray);
-								Intersection int2 = child2.getIntersection(ray);
-								
-								if (int1 == null) {
-									if (int2 != null) {
-										children.add(1,new Pair<>(child2, int2));
-									}
-								} else if (int2 == null) {
-									children.add(1,new Pair<>(child1, int1));
-								} else {
-									if (int1.getDistance() < int2.getDistance()) {
-										children.add(1,new Pair<>(child1, int1));
-										children.add(2,new Pair<>(child2, int2));
-									} else {
-										children.add(1,new Pair<>(child2, int2));
-										children.add(2,new Pair<>(child1, int1));
-									}
-								}
-							} 
-							
-							for (Shape s : bv_wrapper.bv.getShapes()) {
-								
-								if (s instanceof BVInstance) {
-									Intersection intersect = s.getIntersection(ray);
-									nb += 1;
-									if (intersect != null) {
-										children.add(1,new Pair<BVInstance, Intersection>((BVInstance) s, intersect));
-										
-									}
-									continue;
-								}
-								
-								nb += 1;
-								if (s instanceof BV) {
-									Intersection intersect = s.getIntersection(ray);
-									nb += 1;
-									if (intersect != null) {
-										children.add(1,new Pair<BVInstance, Intersection>(new BVInstance((BV) s, bv_wrapper.transformation, bv_wrapper.texture), intersect));
-									}
-									continue;
-								}
-								Intersection currentInt = new ShapeInstance(s, bv_wrapper.transformation, bv_wrapper.texture).getIntersection(ray);
-								if (currentInt != null) {
-									if (currentClosest == null || currentClosest.getDistance() > currentInt.getDistance()) {
-										currentClosest = currentInt;	
-										currentClosest.setColor(bv_wrapper.texture.evaluate(s.getUV(bv_wrapper.transformation.transformInverse(currentClosest.getCordinate()))));
-									}
-								}
-							}
-						}
-						children.remove(0);
+			if (shape.intersect(ray, hit)) {
+				closestShape = shape;
+			}
+		}
+		// only the closest hit is shaded
+		Intersection currentClosest = null;
+		if (closestShape != null) {
+			currentClosest = closestShape.getIntersection(ray, hit);
+		}
+		
+		return new Pair<Intersection, Integer>(currentClosest, nb + FlatBVH.getTestCount());
+	}
+	
+	/**
+	 * Returns the closest intersection of each of the given rays with the
+	 * given shapes, tracing all rays as one packet. The intersection of a ray
+	 * which hits nothing, or which is null, is null.
+	 */
+	public static Intersection[] getClosestIntersections(Ray[] rays, List<ShapeInstance> shapes) {
+		Block block = new Block(rays.length, new ArrayList<LightSource>());
+		System.arraycopy(rays, 0, block.rays, 0, rays.length);
+		return block.trace(shapes);
+	}
+
+	/**
+	 * The rays through a block of pixels and the results of tracing them.
+	 * The render loop creates one block per tile, which is reused for every
+	 * block of pixels and every sample of the tile, so tracing a block does
+	 * not allocate any arrays.
+	 */
+	private static class Block {
+
+		/**
+		 * The rays of the block, filled in by the render loop. Rays which are
+		 * null are inactive.
+		 */
+		final Ray[] rays;
+		final RayPacket packet;
+		final ShapeInstance[] closestShapes;
+		final double[] previous;
+		final Intersection[] closest;
+		final Point[] points;
+		final RayPacket shadows;
+
+		/**
+		 * Whether every point light is visible from the closest intersection
+		 * of every ray, indexed like the lights. Null for other lights.
+		 */
+		final boolean[][] visible;
+
+		Block(int size, List<LightSource> lights) {
+			rays = new Ray[size];
+			packet = new RayPacket(rays);
+			closestShapes = new ShapeInstance[size];
+			previous = new double[size];
+			closest = new Intersection[size];
+			points = new Point[size];
+			shadows = new RayPacket(new Ray[size]);
+			visible = new boolean[lights.size()][];
+			for (int l = 0; l < lights.size(); l++) {
+				if (lights.get(l) instanceof PointLightSource) {
+					visible[l] = new boolean[size];
+				}
+			}
+		}
+
+		/**
+		 * Returns the closest intersection of each of the rays of this block
+		 * with the given shapes, tracing all rays as one packet. The
+		 * intersection of a ray which hits nothing, or which is null, is
+		 * null. The returned array is reused by the next trace.
+		 */
+		Intersection[] trace(List<ShapeInstance> shapes) {
+			packet.reset();
+			Arrays.fill(closestShapes, null);
+			for (ShapeInstance shape : shapes) {
+				for (int i = 0; i < rays.length; i++) {
+					if (rays[i] != null) {
+						previous[i] = packet.getHit(i).t;
 					}
 				}
-				else {
-					if (currentClosest == null || currentClosest.getDistance() > i.getDistance()) {
-						currentClosest = i;	
-						currentClosest.setColor(shape.texture.evaluate(i.getShape().getUV(i.getCordinate())));
+				packet.intersect(shape);
+				for (int i = 0; i < rays.length; i++) {
+					if (rays[i] != null && packet.getHit(i).t < previous[i]) {
+						closestShapes[i] = shape;
 					}
 				}
 			}
-			
+			// only the closest hit of every ray is shaded
+			for (int i = 0; i < rays.length; i++) {
+				closest[i] = null;
+				if (closestShapes[i] != null) {
+					closest[i] = closestShapes[i].getIntersection(rays[i], packet.getHit(i));
+				}
+			}
+			return closest;
+		}
+
+		/**
+		 * Traces the shadow rays from the closest intersections of the last
+		 * trace towards every point light in the given lights as one packet
+		 * per light, and stores whether the light is visible in
+		 * {@link #visible}.
+		 */
+		void traceShadows(List<LightSource> lights, List<ShapeInstance> shapes) {
+			for (int i = 0; i < closest.length; i++) {
+				points[i] = closest[i] == null ? null : closest[i].getCordinate();
+			}
+			for (int l = 0; l < lights.size(); l++) {
+				if (visible[l] != null) {
+					((PointLightSource) lights.get(l)).areVisibleFrom(points, shapes, shadows, visible[l]);
+				}
+			}
 		}
-		
-		return new Pair<Intersection, Integer>(currentClosest, nb);
 	}
 }
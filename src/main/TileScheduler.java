@@ -0,0 +1,210 @@
+package main;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.atomic.AtomicReference;
+
+import film.Tile;
+
+/**
+ * Renders the tiles of an image on a fixed number of worker threads with work
+ * stealing.
+ *
+ * The tiles are dealt out in the given order, round robin, to a deque per
+ * worker. A worker takes the tiles of its own deque from the front, so the
+ * tiles early in the order are rendered first. A worker whose deque is empty
+ * steals from the back of the deque of another worker, taking the tiles
+ * which would otherwise be rendered last. When the cost of the tiles is
+ * uneven, the cheap deques are emptied first and their workers help with
+ * the expensive ones instead of sitting idle.
+ *
+ * The time spent on every tile is measured, so the tiles of a next pass can
+ * be ordered by their cost with {@link film.TileOrder#COST}.
+ *
+ * The workers are kept between renders: after a pass, they wait on a phaser
+ * for the deques of the next pass to be filled.
+ */
+public class TileScheduler {
+
+	/**
+	 * Renders a single tile. A renderer is called by several workers at once,
+	 * each with their own tile.
+	 */
+	public interface TileRenderer {
+		public void render(Tile tile);
+	}
+
+	private final int workers;
+
+	/**
+	 * The deque of tile indices of every worker, refilled for every pass.
+	 */
+	private final List<ConcurrentLinkedDeque<Integer>> deques = new ArrayList<>();
+
+	/**
+	 * The barrier of the workers and the thread calling
+	 * {@link #render(List, TileRenderer)}. Every pass takes two phases: the
+	 * workers wait for the start of the pass, render the tiles and wait for
+	 * each other at its end.
+	 */
+	private final Phaser phaser = new Phaser(1);
+
+	private Thread[] threads = null;
+	private boolean stopped = false;
+
+	/**
+	 * The tiles, renderer and costs of the current pass. They are written
+	 * before the start of a pass and read by the workers after it, so the
+	 * phaser makes them visible.
+	 */
+	private List<Tile> tiles;
+	private TileRenderer renderer;
+	private long[] costs;
+
+	/**
+	 * The first exception thrown by a renderer in the current pass.
+	 */
+	private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+	/**
+	 * Creates a new scheduler with the given number of worker threads. The
+	 * workers are started by the first render and kept for the next ones,
+	 * until the scheduler is shut down.
+	 *
+	 * @throws IllegalArgumentException
+	 *             when the number of workers is smaller than one.
+	 */
+	public TileScheduler(int workers) throws IllegalArgumentException {
+		if (workers < 1)
+			throw new IllegalArgumentException("there must be at least one worker!");
+		this.workers = workers;
+		for (int worker = 0; worker < workers; worker++) {
+			deques.add(new ConcurrentLinkedDeque<Integer>());
+		}
+	}
+
+	/**
+	 * Creates a new scheduler with a worker thread for every processor.
+	 */
+	public TileScheduler() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	public int getNumberOfWorkers() {
+		return workers;
+	}
+
+	/**
+	 * Renders the given tiles with the given renderer and returns when all
+	 * tiles are rendered. The progressive mode calls this once per pass, so
+	 * the workers are not started anew for every pass but wait for the next
+	 * one. Must not be called by several threads at once.
+	 *
+	 * @param tiles
+	 *            the tiles to render, in the order to render them.
+	 * @param renderer
+	 *            the renderer of a single tile.
+	 * @throws InterruptedException
+	 *             when the current thread is interrupted while waiting for
+	 *             the workers.
+	 * @throws IllegalStateException
+	 *             when this scheduler is shut down.
+	 * @return the time in nanoseconds spent on every tile, in the order of
+	 *         the given tiles.
+	 */
+	public long[] render(List<Tile> tiles, TileRenderer renderer)
+			throws InterruptedException, IllegalStateException {
+		if (stopped)
+			throw new IllegalStateException("the scheduler is shut down!");
+		if (threads == null) {
+			start();
+		}
+		this.tiles = tiles;
+		this.renderer = renderer;
+		this.costs = new long[tiles.size()];
+		// a pass which failed may have left tiles behind
+		for (ConcurrentLinkedDeque<Integer> deque : deques) {
+			deque.clear();
+		}
+		for (int i = 0; i < tiles.size(); i++) {
+			deques.get(i % workers).addLast(i);
+		}
+		failure.set(null);
+		// release the workers and wait for the end of the pass
+		phaser.arriveAndAwaitAdvance();
+		phaser.awaitAdvanceInterruptibly(phaser.arrive());
+		Throwable thrown = failure.get();
+		if (thrown instanceof RuntimeException) {
+			throw (RuntimeException) thrown;
+		} else if (thrown instanceof Error) {
+			throw (Error) thrown;
+		}
+		return costs;
+	}
+
+	/**
+	 * Stops the workers once they have finished the current pass. A
+	 * scheduler which is shut down cannot render anymore.
+	 */
+	public void shutdown() {
+		if (stopped) {
+			return;
+		}
+		stopped = true;
+		if (threads != null) {
+			// release the workers, which see that the scheduler is stopped
+			phaser.arriveAndDeregister();
+		}
+	}
+
+	private void start() {
+		threads = new Thread[workers];
+		phaser.bulkRegister(workers);
+		for (int worker = 0; worker < workers; worker++) {
+			final int self = worker;
+			threads[worker] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					while (true) {
+						phaser.arriveAndAwaitAdvance();
+						if (stopped) {
+							return;
+						}
+						try {
+							renderTiles(self);
+						} catch (RuntimeException | Error e) {
+							failure.compareAndSet(null, e);
+						}
+						phaser.arriveAndAwaitAdvance();
+					}
+				}
+			}, "render-worker-" + worker);
+			// a scheduler which is never shut down does not keep the
+			// virtual machine alive
+			threads[worker].setDaemon(true);
+			threads[worker].start();
+		}
+	}
+
+	/**
+	 * Renders the tiles of the deque of the given worker, and then steals
+	 * the tiles of the other workers until all deques are empty.
+	 */
+	private void renderTiles(int self) {
+		while (true) {
+			Integer index = deques.get(self).pollFirst();
+			for (int victim = 1; index == null && victim < workers; victim++) {
+				index = deques.get((self + victim) % workers).pollLast();
+			}
+			if (index == null) {
+				// no tiles are added during a pass, so all tiles are taken
+				return;
+			}
+			long start = System.nanoTime();
+			renderer.render(tiles.get(index));
+			costs[index] = System.nanoTime() - start;
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package main;
+
+import java.util.Random;
+
+import acceleration.BVH;
+import acceleration.FlatBVH;
+import acceleration.WideBVH;
+import math.Point;
+import math.Ray;
+import math.Vector;
+import shape.PolygonMesh;
+import shape.Shape;
+
+/**
+ * Compares the traversal of the binary hierarchy of a mesh with its collapse
+ * into hierarchies with four and eight children per node.
+ *
+ * For every width the number of nodes, the depth, the best time of a number
+ * of runs tracing the same random rays and the average number of box and
+ * primitive tests per ray are reported. The rays are shot from around the
+ * mesh towards a random point inside its bounds.
+ *
+ * Usage: WideBVHBenchmark [mesh.obj ...], defaults to the bunny, the teapot
+ * and the dragon.
+ */
+public class WideBVHBenchmark {
+
+	private static final int nb_rays = 200000;
+	private static final int nb_runs = 5;
+	private static final int[] widths = { 2, 4, 8 };
+
+	public static void main(String[] arguments) {
+		String[] meshes = arguments.length > 0 ? arguments
+				: new String[] { "bunny.obj", "teapot.obj", "dragon.obj" };
+		for (String name : meshes) {
+			PolygonMesh mesh = new PolygonMesh(name);
+			if (mesh.getNumberOfTriangles() == 0) {
+				System.out.println(String.format("%s: skipped, no triangles", name));
+				System.out.println();
+				continue;
+			}
+			FlatBVH binary = mesh.getHierarchy();
+			Ray[] rays = getRays(binary);
+			System.out.println(String.format("%s: %d triangles, %s", name,
+					mesh.getNumberOfTriangles(), BVH.getBuildMode()));
+			System.out.println(String.format("%-6s %8s %6s %10s %10s %10s", "width", "nodes", "depth",
+					"trace (ms)", "Mrays/s", "tests/ray"));
+			for (int width : widths) {
+				Shape hierarchy;
+				int nodes, depth;
+				if (width == 2) {
+					hierarchy = binary;
+					nodes = binary.getNumberOfNodes();
+					depth = binary.getDepth();
+				} else {
+					WideBVH wide = new WideBVH(binary, width);
+					hierarchy = wide;
+					nodes = wide.getNumberOfNodes();
+					depth = wide.getDepth();
+				}
+				double best = Double.MAX_VALUE;
+				int hits = 0;
+				for (int run = 0; run < nb_runs; run++) {
+					FlatBVH.resetTestCount();
+					hits = 0;
+					long start = System.nanoTime();
+					for (Ray ray : rays) {
+						if (hierarchy.getIntersection(ray) != null) {
+							hits += 1;
+						}
+					}
+					best = Math.min(best, (System.nanoTime() - start) / 1e6);
+				}
+				double tests = FlatBVH.getTestCount() / (double) nb_rays;
+				System.out.println(String.format("%-6d %8d %6d %10.1f %10.2f %10.2f", width, nodes,
+						depth, best, nb_rays / best / 1e3, tests));
+			}
+			System.out.println();
+		}
+	}
+
+	/**
+	 * Returns rays from a sphere around the given hierarchy towards a random
+	 * point inside its bounds.
+	 */
+	private static Ray[] getRays(FlatBVH flat) {
+		Random random = new Random(0);
+		Point lb = flat.createNewBV().getLeftBottom();
+		Point rt = flat.createNewBV().getRightTop();
+		Point center = flat.getCentric();
+		double radius = rt.subtract(lb).length();
+		Ray[] rays = new Ray[nb_rays];
+		for (int i = 0; i < nb_rays; i++) {
+			Vector offset = new Vector(random.nextGaussian(), random.nextGaussian(),
+					random.nextGaussian());
+			Point origin = center.add(offset.scale(radius / offset.length()));
+			Point target = new Point(lb.x + random.nextDouble() * (rt.x - lb.x),
+					lb.y + random.nextDouble() * (rt.y - lb.y),
+					lb.z + random.nextDouble() * (rt.z - lb.z));
+			rays[i] = new Ray(origin, target.subtract(origin));
+		}
+		return rays;
+	}
+}
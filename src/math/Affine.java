@@ -0,0 +1,161 @@
+package math;
+
+/**
+ * The top three rows of a 4 x 4 matrix whose bottom row is 0 0 0 1, kept in
+ * final fields so points and vectors are transformed without the indirection
+ * of the matrix array and without the division by the homogeneous
+ * coordinate.
+ *
+ * The kind of the transformation is detected at construction, so the
+ * identity and translations skip the multiplications altogether.
+ */
+final class Affine {
+	/**
+	 * The kinds of affine transformations with a shortcut.
+	 */
+	enum Kind {
+		IDENTITY, TRANSLATION, GENERAL
+	}
+
+	final Kind kind;
+
+	// @formatter:off
+	final double m00, m01, m02, m03,
+				 m10, m11, m12, m13,
+				 m20, m21, m22, m23;
+	// @formatter:on
+
+	private Affine(Matrix matrix) {
+		m00 = matrix.get(0, 0);
+		m01 = matrix.get(0, 1);
+		m02 = matrix.get(0, 2);
+		m03 = matrix.get(0, 3);
+		m10 = matrix.get(1, 0);
+		m11 = matrix.get(1, 1);
+		m12 = matrix.get(1, 2);
+		m13 = matrix.get(1, 3);
+		m20 = matrix.get(2, 0);
+		m21 = matrix.get(2, 1);
+		m22 = matrix.get(2, 2);
+		m23 = matrix.get(2, 3);
+		boolean linearIdentity = m00 == 1 && m01 == 0 && m02 == 0 && m10 == 0
+				&& m11 == 1 && m12 == 0 && m20 == 0 && m21 == 0 && m22 == 1;
+		if (!linearIdentity)
+			kind = Kind.GENERAL;
+		else if (m03 == 0 && m13 == 0 && m23 == 0)
+			kind = Kind.IDENTITY;
+		else
+			kind = Kind.TRANSLATION;
+	}
+
+	/**
+	 * Returns the affine part of the given matrix.
+	 *
+	 * @param matrix
+	 *            the matrix to take the affine part of.
+	 * @throws NullPointerException
+	 *             when the given matrix is null.
+	 * @return the affine part of the given matrix, or null when the bottom row
+	 *         of the matrix is not 0 0 0 1.
+	 */
+	static Affine of(Matrix matrix) throws NullPointerException {
+		if (matrix.get(3, 0) != 0 || matrix.get(3, 1) != 0
+				|| matrix.get(3, 2) != 0 || matrix.get(3, 3) != 1)
+			return null;
+		return new Affine(matrix);
+	}
+
+	/**
+	 * Transforms the given point by this transformation.
+	 *
+	 * @param point
+	 *            the point to transform.
+	 * @throws NullPointerException
+	 *             when the given point is null.
+	 * @return the given point transformed by this transformation.
+	 */
+	Point transform(Point point) throws NullPointerException {
+		switch (kind) {
+		case IDENTITY:
+			return point;
+		case TRANSLATION:
+			return new Point(point.x + m03, point.y + m13, point.z + m23);
+		default:
+			return new Point(m00 * point.x + m01 * point.y + m02 * point.z + m03,
+					m10 * point.x + m11 * point.y + m12 * point.z + m13,
+					m20 * point.x + m21 * point.y + m22 * point.z + m23);
+		}
+	}
+
+	/**
+	 * Transforms the given vector by this transformation.
+	 *
+	 * @param vector
+	 *            the vector to transform.
+	 * @throws NullPointerException
+	 *             when the given vector is null.
+	 * @return the given vector transformed by this transformation.
+	 */
+	Vector transform(Vector vector) throws NullPointerException {
+		if (kind != Kind.GENERAL)
+			return vector;
+		return new Vector(m00 * vector.x + m01 * vector.y + m02 * vector.z,
+				m10 * vector.x + m11 * vector.y + m12 * vector.z,
+				m20 * vector.x + m21 * vector.y + m22 * vector.z);
+	}
+
+	/**
+	 * Transforms the point with the given coordinates by this transformation
+	 * and writes the result to the given array.
+	 *
+	 * @throws NullPointerException
+	 *             when the given array is null.
+	 * @throws ArrayIndexOutOfBoundsException
+	 *             when the array holds less than three elements from the given
+	 *             offset.
+	 */
+	void transformPoint(double x, double y, double z, double[] result,
+			int offset) throws NullPointerException,
+			ArrayIndexOutOfBoundsException {
+		switch (kind) {
+		case IDENTITY:
+			result[offset] = x;
+			result[offset + 1] = y;
+			result[offset + 2] = z;
+			break;
+		case TRANSLATION:
+			result[offset] = x + m03;
+			result[offset + 1] = y + m13;
+			result[offset + 2] = z + m23;
+			break;
+		default:
+			result[offset] = m00 * x + m01 * y + m02 * z + m03;
+			result[offset + 1] = m10 * x + m11 * y + m12 * z + m13;
+			result[offset + 2] = m20 * x + m21 * y + m22 * z + m23;
+		}
+	}
+
+	/**
+	 * Transforms the vector with the given coordinates by this transformation
+	 * and writes the result to the given array.
+	 *
+	 * @throws NullPointerException
+	 *             when the given array is null.
+	 * @throws ArrayIndexOutOfBoundsException
+	 *             when the array holds less than three elements from the given
+	 *             offset.
+	 */
+	void transformVector(double x, double y, double z, double[] result,
+			int offset) throws NullPointerException,
+			ArrayIndexOutOfBoundsException {
+		if (kind != Kind.GENERAL) {
+			result[offset] = x;
+			result[offset + 1] = y;
+			result[offset + 2] = z;
+		} else {
+			result[offset] = m00 * x + m01 * y + m02 * z;
+			result[offset + 1] = m10 * x + m11 * y + m12 * z;
+			result[offset + 2] = m20 * x + m21 * y + m22 * z;
+		}
+	}
+}
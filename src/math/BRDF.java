@@ -4,6 +4,15 @@ public class BRDF {
 
 	
 	public static double evaluate(Vector eye, Vector camera) {
+		return evaluate(eye.x, eye.y, eye.z, camera.x, camera.y, camera.z);
+	}
+
+	/**
+	 * Evaluates the BRDF for the given directions given by their components,
+	 * so the hot shading loop need not allocate vectors.
+	 */
+	public static double evaluate(double eyeX, double eyeY, double eyeZ,
+			double cameraX, double cameraY, double cameraZ) {
 		return 1.0;
 	}
 }
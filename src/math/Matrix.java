@@ -215,18 +215,17 @@ public class Matrix {
 	 * @return the given point transformed by this matrix.
 	 */
 	public Point transform(Point point) throws NullPointerException {
+		double[] r0 = matrix[0], r1 = matrix[1], r2 = matrix[2], r3 = matrix[3];
 		// @formatter:off
-		double x = get(0, 0) * point.x + get(0, 1) * point.y +
-				   get(0, 2) * point.z + get(0, 3);
-		double y = get(1, 0) * point.x + get(1, 1) * point.y +
-				   get(1, 2) * point.z + get(1, 3);
-		double z = get(2, 0) * point.x + get(2, 1) * point.y +
-				   get(2, 2) * point.z + get(2, 3);
-		double w = get(3, 0) * point.x + get(3, 1) * point.y + 
-				   get(3, 2) * point.z + get(3, 3);
-		double invW = 1.0 / w;
+		double x = r0[0] * point.x + r0[1] * point.y + r0[2] * point.z + r0[3];
+		double y = r1[0] * point.x + r1[1] * point.y + r1[2] * point.z + r1[3];
+		double z = r2[0] * point.x + r2[1] * point.y + r2[2] * point.z + r2[3];
 		// @formatter:on
+		if (r3[0] == 0 && r3[1] == 0 && r3[2] == 0 && r3[3] == 1)
+			return new Point(x, y, z);
 
+		double w = r3[0] * point.x + r3[1] * point.y + r3[2] * point.z + r3[3];
+		double invW = 1.0 / w;
 		return new Point(x * invW, y * invW, z * invW);
 	}
 
@@ -240,13 +239,11 @@ public class Matrix {
 	 * @return the given point transformed by this matrix.
 	 */
 	public Vector transform(Vector vector) throws NullPointerException {
+		double[] r0 = matrix[0], r1 = matrix[1], r2 = matrix[2];
 		// @formatter:off
-		double x = get(0, 0) * vector.x + get(0, 1) * vector.y +
-				   get(0, 2) * vector.z;
-		double y = get(1, 0) * vector.x + get(1, 1) * vector.y +
-				   get(1, 2) * vector.z;
-		double z = get(2, 0) * vector.x + get(2, 1) * vector.y +
-				   get(2, 2) * vector.z;
+		double x = r0[0] * vector.x + r0[1] * vector.y + r0[2] * vector.z;
+		double y = r1[0] * vector.x + r1[1] * vector.y + r1[2] * vector.z;
+		double z = r2[0] * vector.x + r2[1] * vector.y + r2[2] * vector.z;
 		// @formatter:on
 
 		return new Vector(x, y, z);
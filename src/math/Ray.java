@@ -18,6 +18,23 @@ public class Ray implements Cloneable {
 	 */
 	public final Vector direction;
 
+	/**
+	 * The ray parameter beyond which hits are ignored.
+	 */
+	public final double tMax;
+
+	/**
+	 * The reciprocals of the components of the direction, which are infinite
+	 * for the components which are zero.
+	 */
+	public final double invX, invY, invZ;
+
+	/**
+	 * The signs of the direction: bit k is set when the reciprocal of
+	 * component k of the direction is negative.
+	 */
+	public final int signs;
+
 	/**
 	 * Creates a new ray starting at the given origin and propagating in the
 	 * given direction.
@@ -30,12 +47,41 @@ public class Ray implements Cloneable {
 	 *             when the given origin and/or direction is null.
 	 */
 	public Ray(Point origin, Vector direction) throws NullPointerException {
+		this(origin, direction, Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * Creates a new ray starting at the given origin and propagating in the
+	 * given direction up to the given ray parameter.
+	 * 
+	 * @param origin
+	 *            the origin of the ray.
+	 * @param direction
+	 *            the direction of the ray.
+	 * @param tMax
+	 *            the ray parameter beyond which hits are ignored.
+	 * @throws NullPointerException
+	 *             when the given origin and/or direction is null.
+	 * @throws IllegalArgumentException
+	 *             when the given maximum is not larger than zero.
+	 */
+	public Ray(Point origin, Vector direction, double tMax)
+			throws NullPointerException, IllegalArgumentException {
 		if (origin == null)
 			throw new NullPointerException("the given origin is null!");
 		if (direction == null)
 			throw new NullPointerException("the given direction is null!");
+		if (!(tMax > 0))
+			throw new IllegalArgumentException(
+					"the maximum ray parameter must be larger than zero!");
 		this.origin = origin;
 		this.direction = direction;
+		this.tMax = tMax;
+		this.invX = 1.0 / direction.x;
+		this.invY = 1.0 / direction.y;
+		this.invZ = 1.0 / direction.z;
+		this.signs = (invX < 0 ? 1 : 0) | (invY < 0 ? 2 : 0)
+				| (invZ < 0 ? 4 : 0);
 	}
 
 	/*
@@ -20,6 +20,18 @@ public class Transformation {
 	 */
 	private final Matrix inverse;
 
+	/**
+	 * The affine part of the transformation matrix, or null when the matrix
+	 * is not affine.
+	 */
+	private final Affine affine;
+
+	/**
+	 * The affine part of the inverse matrix, or null when the matrix is not
+	 * affine.
+	 */
+	private final Affine inverseAffine;
+
 	/**
 	 * Reference to the identity transformation.
 	 */
@@ -37,6 +49,8 @@ public class Transformation {
 	private Transformation(Matrix matrix, Matrix inverse) {
 		this.matrix = matrix;
 		this.inverse = inverse;
+		this.affine = Affine.of(matrix);
+		this.inverseAffine = Affine.of(inverse);
 	}
 
 	/**
@@ -57,6 +71,24 @@ public class Transformation {
 		return inverse;
 	}
 
+	/**
+	 * Returns true when this transformation leaves every point in place.
+	 * 
+	 * @return true when this transformation is the identity.
+	 */
+	public boolean isIdentity() {
+		return affine != null && affine.kind == Affine.Kind.IDENTITY;
+	}
+
+	/**
+	 * Returns true when this transformation only translates points.
+	 * 
+	 * @return true when this transformation is a translation.
+	 */
+	public boolean isTranslation() {
+		return affine != null && affine.kind == Affine.Kind.TRANSLATION;
+	}
+
 	/**
 	 * Returns the inverse of this transformation.
 	 * 
@@ -93,6 +125,8 @@ public class Transformation {
 	 * @return the given point transformed by this transformation.
 	 */
 	public Point transform(Point point) throws NullPointerException {
+		if (affine != null)
+			return affine.transform(point);
 		return matrix.transform(point);
 	}
 
@@ -107,6 +141,8 @@ public class Transformation {
 	 *         transformation.
 	 */
 	public Point transformInverse(Point point) throws NullPointerException {
+		if (inverseAffine != null)
+			return inverseAffine.transform(point);
 		return inverse.transform(point);
 	}
 
@@ -120,6 +156,8 @@ public class Transformation {
 	 * @return the given vector transformed by this transformation.
 	 */
 	public Vector transform(Vector vector) throws NullPointerException {
+		if (affine != null)
+			return affine.transform(vector);
 		return matrix.transform(vector);
 	}
 
@@ -132,14 +170,40 @@ public class Transformation {
 			n_t = null;
 		}
 		Ray ray_t = transform(i.getRay());
-		return new Intersection(p_t, i.getShape(), ray_t, n_t, i.getColor());
+		return new Intersection(p_t, i.getShape(), ray_t, n_t, i.getColor(), i.getT());
+	}
+
+	/**
+	 * Transforms the given intersection, found for the inverse transformation
+	 * of the given ray, with this transformation. The given ray becomes the
+	 * ray of the transformed intersection, so the ray of the intersection is
+	 * not transformed back. The ray parameter of the hit is preserved by the
+	 * affine transformation.
+	 * 
+	 * @param i
+	 *            the intersection to transform.
+	 * @param ray
+	 *            the untransformed ray the intersection was found for.
+	 * @throws NullPointerException
+	 *             when the given intersection is null.
+	 * @return the given intersection transformed by this transformation.
+	 */
+	public Intersection transform(Intersection i, Ray ray)
+			throws NullPointerException {
+		if (isIdentity()) {
+			return new Intersection(i.getCordinate(), i.getShape(), ray,
+					i.getNormal(), i.getColor(), i.getT());
+		}
+		Point p_t = transform(i.getCordinate());
+		Vector n_t = i.getNormal() == null ? null : transform(i.getNormal());
+		return new Intersection(p_t, i.getShape(), ray, n_t, i.getColor(), i.getT());
 	}
 	
 	public Intersection transformInverse(Intersection i) {
 		Point p_t = transformInverse(i.getCordinate());
 		Vector n_t = transformInverse(i.getNormal());
 		Ray ray_t = transformInverse(i.getRay());
-		return new Intersection(p_t, i.getShape(), ray_t, n_t, i.getColor());
+		return new Intersection(p_t, i.getShape(), ray_t, n_t, i.getColor(), i.getT());
 	}
 	/**
 	 * Transforms the given vector with the inverse of this transformation.
@@ -152,9 +216,122 @@ public class Transformation {
 	 *         transformation.
 	 */
 	public Vector transformInverse(Vector vector) throws NullPointerException {
+		if (inverseAffine != null)
+			return inverseAffine.transform(vector);
 		return inverse.transform(vector);
 	}
 
+	/**
+	 * Transforms the point with the given coordinates with this transformation
+	 * and writes the transformed coordinates to the given array.
+	 * 
+	 * @param result
+	 *            the array to write the transformed point to.
+	 * @param offset
+	 *            the index of the x coordinate in the given array.
+	 * @throws NullPointerException
+	 *             when the given array is null.
+	 * @throws ArrayIndexOutOfBoundsException
+	 *             when the array holds less than three elements from the given
+	 *             offset.
+	 */
+	public void transformPoint(double x, double y, double z, double[] result,
+			int offset) throws NullPointerException,
+			ArrayIndexOutOfBoundsException {
+		if (affine != null) {
+			affine.transformPoint(x, y, z, result, offset);
+		} else {
+			store(matrix.transform(new Point(x, y, z)), result, offset);
+		}
+	}
+
+	/**
+	 * Transforms the point with the given coordinates with the inverse of this
+	 * transformation and writes the transformed coordinates to the given
+	 * array.
+	 * 
+	 * @param result
+	 *            the array to write the transformed point to.
+	 * @param offset
+	 *            the index of the x coordinate in the given array.
+	 * @throws NullPointerException
+	 *             when the given array is null.
+	 * @throws ArrayIndexOutOfBoundsException
+	 *             when the array holds less than three elements from the given
+	 *             offset.
+	 */
+	public void transformInversePoint(double x, double y, double z,
+			double[] result, int offset) throws NullPointerException,
+			ArrayIndexOutOfBoundsException {
+		if (inverseAffine != null) {
+			inverseAffine.transformPoint(x, y, z, result, offset);
+		} else {
+			store(inverse.transform(new Point(x, y, z)), result, offset);
+		}
+	}
+
+	/**
+	 * Transforms the vector with the given coordinates with this
+	 * transformation and writes the transformed coordinates to the given
+	 * array.
+	 * 
+	 * @param result
+	 *            the array to write the transformed vector to.
+	 * @param offset
+	 *            the index of the x coordinate in the given array.
+	 * @throws NullPointerException
+	 *             when the given array is null.
+	 * @throws ArrayIndexOutOfBoundsException
+	 *             when the array holds less than three elements from the given
+	 *             offset.
+	 */
+	public void transformVector(double x, double y, double z, double[] result,
+			int offset) throws NullPointerException,
+			ArrayIndexOutOfBoundsException {
+		if (affine != null) {
+			affine.transformVector(x, y, z, result, offset);
+		} else {
+			Vector vector = matrix.transform(new Vector(x, y, z));
+			result[offset] = vector.x;
+			result[offset + 1] = vector.y;
+			result[offset + 2] = vector.z;
+		}
+	}
+
+	/**
+	 * Transforms the vector with the given coordinates with the inverse of
+	 * this transformation and writes the transformed coordinates to the given
+	 * array.
+	 * 
+	 * @param result
+	 *            the array to write the transformed vector to.
+	 * @param offset
+	 *            the index of the x coordinate in the given array.
+	 * @throws NullPointerException
+	 *             when the given array is null.
+	 * @throws ArrayIndexOutOfBoundsException
+	 *             when the array holds less than three elements from the given
+	 *             offset.
+	 */
+	public void transformInverseVector(double x, double y, double z,
+			double[] result, int offset) throws NullPointerException,
+			ArrayIndexOutOfBoundsException {
+		if (inverseAffine != null) {
+			inverseAffine.transformVector(x, y, z, result, offset);
+		} else {
+			Vector vector = inverse.transform(new Vector(x, y, z));
+			result[offset] = vector.x;
+			result[offset + 1] = vector.y;
+			result[offset + 2] = vector.z;
+		}
+	}
+
+	private static void store(Point point, double[] result, int offset) {
+		result[offset] = point.x;
+		result[offset + 1] = point.y;
+		result[offset + 2] = point.z;
+	}
+
 	/**
 	 * Transforms the given ray with this transformation.
 	 * 
@@ -167,7 +344,7 @@ public class Transformation {
 	public Ray transform(Ray ray) throws NullPointerException {
 		Point point = transform(ray.origin);
 		Vector direction = transform(ray.direction);
-		return new Ray(point, direction);
+		return new Ray(point, direction, ray.tMax);
 	}
 
 	/**
@@ -182,7 +359,7 @@ public class Transformation {
 	public Ray transformInverse(Ray ray) throws NullPointerException {
 		Point point = transformInverse(ray.origin);
 		Vector direction = transformInverse(ray.direction);
-		return new Ray(point, direction);
+		return new Ray(point, direction, ray.tMax);
 	}
 
 	/**
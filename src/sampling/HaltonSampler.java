@@ -0,0 +1,93 @@
+package sampling;
+
+/**
+ * A sampler taking the samples of a pixel from the Halton sequence: the
+ * dimension d of the sample with index i is the radical inverse of i in the
+ * base of the d-th prime.
+ *
+ * Every pixel would get the same points, and the first points of the large
+ * bases are clustered near zero, so the digits of every dimension of a pixel
+ * are scrambled: every digit position has its own random permutation of the
+ * digits, selected by a hash of the pixel, the dimension and the position.
+ * This keeps the low discrepancy of the points of a pixel while
+ * decorrelating neighbouring pixels. Dimensions beyond the table of primes
+ * fall back to uniform random values.
+ */
+public class HaltonSampler extends Sampler {
+
+	/**
+	 * The number of dimensions taken from the Halton sequence.
+	 */
+	public static final int MAX_DIMENSIONS = 64;
+
+	/**
+	 * The weight below which the scrambled zero digits of a radical inverse
+	 * are dropped.
+	 */
+	private static final double PRECISION = 1e-9;
+
+	private static final int[] primes = getPrimes(MAX_DIMENSIONS);
+
+	/**
+	 * Creates a new Halton sampler with the given seed, taking the given
+	 * number of samples for every pixel.
+	 *
+	 * @throws IllegalArgumentException
+	 *             when the number of samples per pixel is smaller than one.
+	 */
+	public HaltonSampler(long seed, int samplesPerPixel) throws IllegalArgumentException {
+		super(seed, samplesPerPixel);
+	}
+
+	@Override
+	protected double get(int x, int y, int index, int dimension) {
+		if (dimension >= MAX_DIMENSIONS) {
+			return toUnit(hash(seed, x, y, index, dimension));
+		}
+		long scramble = hash(seed, x, y, -1, dimension);
+		return Math.min(getScrambledRadicalInverse(index, primes[dimension], scramble),
+				ONE_MINUS_EPSILON);
+	}
+
+	/**
+	 * Returns the digits of the given index in the given base mirrored around
+	 * the decimal point, where every digit is permuted by the permutation of
+	 * its position selected by the given hash. The zero digits beyond the
+	 * last digit of the index are permuted as well, up to a precision of
+	 * {@link #PRECISION}.
+	 */
+	static double getScrambledRadicalInverse(int index, int base, long scramble) {
+		double inverse = 1.0 / base;
+		double factor = inverse;
+		double result = 0;
+		for (int position = 0; index > 0 || factor > PRECISION; position++) {
+			int permutation = (int) (scramble >>> 32) + position * 0x9E3779B9;
+			int digit = StratifiedSampler.permute(index % base, base, permutation);
+			result += digit * factor;
+			index /= base;
+			factor *= inverse;
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the given number of smallest primes.
+	 */
+	private static int[] getPrimes(int count) {
+		int[] primes = new int[count];
+		int n = 0;
+		for (int candidate = 2; n < count; candidate++) {
+			boolean prime = true;
+			for (int i = 0; i < n && primes[i] * primes[i] <= candidate; i++) {
+				if (candidate % primes[i] == 0) {
+					prime = false;
+					break;
+				}
+			}
+			if (prime) {
+				primes[n++] = candidate;
+			}
+		}
+		return primes;
+	}
+}
@@ -0,0 +1,184 @@
+package sampling;
+
+/**
+ * Generates the sample vectors of the pixels of an image. Every sample of a
+ * pixel is a vector of values in [0, 1), which are consumed one dimension at
+ * a time: first the position within the pixel, then the position on the lens
+ * and then as many dimensions as the light sampling needs.
+ *
+ * The value of a dimension is a function of the seed, the pixel, the index of
+ * the sample within the pixel and the dimension only, so a frame rendered
+ * with the same seed is the same, regardless of the order in which the
+ * pixels are rendered or of the thread rendering them.
+ *
+ * A sampler keeps the sample it is generating, so it is not thread safe.
+ * Every render thread uses its own sampler, see
+ * {@link #setThreadSampler(Sampler)}.
+ */
+public abstract class Sampler {
+
+	/**
+	 * The first of the two dimensions of the position within the pixel.
+	 */
+	public static final int PIXEL_DIMENSION = 0;
+
+	/**
+	 * The first of the two dimensions of the position on the lens.
+	 */
+	public static final int LENS_DIMENSION = 2;
+
+	/**
+	 * The first of the dimensions used to sample the lights.
+	 */
+	public static final int LIGHT_DIMENSION = 4;
+
+	/**
+	 * Returns the first of the two dimensions used to sample the area light
+	 * with the given index among the area lights of a scene. Every area light
+	 * has its own pair of dimensions, so its samples do not depend on the
+	 * other lights.
+	 *
+	 * @throws IllegalArgumentException
+	 *             when the index is negative.
+	 */
+	public static int getLightDimension(int light) throws IllegalArgumentException {
+		if (light < 0)
+			throw new IllegalArgumentException("the index of a light cannot be negative!");
+		return LIGHT_DIMENSION + 2 * light;
+	}
+
+	/**
+	 * The largest double smaller than one.
+	 */
+	static final double ONE_MINUS_EPSILON = Math.nextDown(1.0);
+
+	private static final ThreadLocal<Sampler> threadSampler = new ThreadLocal<Sampler>() {
+		@Override
+		protected Sampler initialValue() {
+			return new StratifiedSampler(0, 1);
+		}
+	};
+
+	/**
+	 * The seed of this sampler.
+	 */
+	public final long seed;
+
+	/**
+	 * The number of samples taken for every pixel.
+	 */
+	public final int samplesPerPixel;
+
+	private int x;
+	private int y;
+	private int index;
+	private int dimension;
+
+	/**
+	 * Creates a new sampler with the given seed, taking the given number of
+	 * samples for every pixel.
+	 *
+	 * @throws IllegalArgumentException
+	 *             when the number of samples per pixel is smaller than one.
+	 */
+	protected Sampler(long seed, int samplesPerPixel) throws IllegalArgumentException {
+		if (samplesPerPixel < 1)
+			throw new IllegalArgumentException("the number of samples per pixel must be positive!");
+		this.seed = seed;
+		this.samplesPerPixel = samplesPerPixel;
+	}
+
+	/**
+	 * Returns the sampler of the current thread. A thread which has not set a
+	 * sampler gets a stratified sampler with seed zero.
+	 */
+	public static Sampler getThreadSampler() {
+		return threadSampler.get();
+	}
+
+	/**
+	 * Sets the sampler of the current thread.
+	 *
+	 * @throws NullPointerException
+	 *             when the given sampler is null.
+	 */
+	public static void setThreadSampler(Sampler sampler) throws NullPointerException {
+		if (sampler == null)
+			throw new NullPointerException("the given sampler is null!");
+		threadSampler.set(sampler);
+	}
+
+	/**
+	 * Starts the sample with the given index of the given pixel at its first
+	 * dimension.
+	 *
+	 * @throws IllegalArgumentException
+	 *             when the index is negative.
+	 */
+	public void startSample(int x, int y, int index) throws IllegalArgumentException {
+		if (index < 0)
+			throw new IllegalArgumentException("the index of a sample cannot be negative!");
+		this.x = x;
+		this.y = y;
+		this.index = index;
+		this.dimension = 0;
+	}
+
+	/**
+	 * Continues the current sample at the given dimension, for instance
+	 * {@link #LIGHT_DIMENSION} when the rays of the sample were generated
+	 * earlier.
+	 *
+	 * @throws IllegalArgumentException
+	 *             when the dimension is negative.
+	 */
+	public void setDimension(int dimension) throws IllegalArgumentException {
+		if (dimension < 0)
+			throw new IllegalArgumentException("the dimension cannot be negative!");
+		this.dimension = dimension;
+	}
+
+	/**
+	 * Returns the value of the next dimension of the current sample, in [0,
+	 * 1).
+	 */
+	public double get1D() {
+		return get(x, y, index, dimension++);
+	}
+
+	/**
+	 * Returns the value of the given dimension of the sample with the given
+	 * index of the given pixel, in [0, 1).
+	 */
+	protected abstract double get(int x, int y, int index, int dimension);
+
+	/**
+	 * Returns a hash of the given seed, pixel, index and dimension.
+	 */
+	static long hash(long seed, int x, int y, int index, int dimension) {
+		long h = mix(seed + 0x9E3779B97F4A7C15L);
+		h = mix(h ^ ((x & 0xFFFFFFFFL) | ((long) y << 32)));
+		return mix(h ^ ((index & 0xFFFFFFFFL) | ((long) dimension << 32)));
+	}
+
+	/**
+	 * The finalizer of MurmurHash3, which maps every bit of the input to all
+	 * bits of the output.
+	 */
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB9FE1A85EC53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/**
+	 * Returns a uniform value in [0, 1) from the high 53 bits of the given
+	 * hash.
+	 */
+	static double toUnit(long hash) {
+		return (hash >>> 11) * 0x1.0p-53;
+	}
+}
@@ -0,0 +1,37 @@
+package sampling;
+
+/**
+ * The kinds of samplers a frame can be rendered with.
+ */
+public enum SamplerType {
+	STRATIFIED, HALTON, SOBOL;
+
+	public static SamplerType parse(String string) {
+		if (string.equals("stratified")) {
+			return STRATIFIED;
+		} else if (string.equals("halton")) {
+			return HALTON;
+		} else if (string.equals("sobol")) {
+			return SOBOL;
+		}
+		return null;
+	}
+
+	/**
+	 * Creates a new sampler of this kind with the given seed, taking the given
+	 * number of samples for every pixel.
+	 *
+	 * @throws IllegalArgumentException
+	 *             when the number of samples per pixel is smaller than one.
+	 */
+	public Sampler create(long seed, int samplesPerPixel) throws IllegalArgumentException {
+		switch (this) {
+		case HALTON:
+			return new HaltonSampler(seed, samplesPerPixel);
+		case SOBOL:
+			return new SobolSampler(seed, samplesPerPixel);
+		default:
+			return new StratifiedSampler(seed, samplesPerPixel);
+		}
+	}
+}
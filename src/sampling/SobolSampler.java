@@ -0,0 +1,87 @@
+package sampling;
+
+/**
+ * A sampler taking the samples of a pixel from the first two dimensions of
+ * the Sobol sequence with Owen scrambling, padded to as many dimensions as
+ * needed (Burley, "Practical Hash-based Owen Scrambling").
+ *
+ * Every pair of dimensions is a two-dimensional Sobol point set of its own,
+ * whose points are shuffled per pixel and per pair by scrambling their index,
+ * so the pairs are not correlated. Every dimension is then Owen scrambled
+ * with a hash of the pixel and the dimension. Each pair is stratified over
+ * every power of two of samples, so the sampler works best with a power of
+ * two samples per pixel.
+ */
+public class SobolSampler extends Sampler {
+
+	/**
+	 * The generator matrix of the second dimension of the Sobol sequence, one
+	 * column per bit of the index. The first dimension is the van der Corput
+	 * sequence, whose generator matrix reverses the bits of the index.
+	 */
+	private static final int[] directions = getDirections();
+
+	/**
+	 * Creates a new Sobol sampler with the given seed, taking the given
+	 * number of samples for every pixel.
+	 *
+	 * @throws IllegalArgumentException
+	 *             when the number of samples per pixel is smaller than one.
+	 */
+	public SobolSampler(long seed, int samplesPerPixel) throws IllegalArgumentException {
+		super(seed, samplesPerPixel);
+	}
+
+	@Override
+	protected double get(int x, int y, int index, int dimension) {
+		int shuffled = scramble(index, (int) hash(seed, x, y, -1, dimension / 2));
+		int value = dimension % 2 == 0 ? Integer.reverse(shuffled) : getSecond(shuffled);
+		value = scramble(value, (int) hash(seed, x, y, -2, dimension));
+		return Math.min((value & 0xFFFFFFFFL) * 0x1.0p-32, ONE_MINUS_EPSILON);
+	}
+
+	/**
+	 * Returns the second dimension of the Sobol point with the given index, as
+	 * a fixed point fraction of 32 bits.
+	 */
+	private static int getSecond(int index) {
+		int value = 0;
+		for (int bit = 0; index != 0; index >>>= 1, bit++) {
+			if ((index & 1) != 0) {
+				value ^= directions[bit];
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * Returns the direction numbers of the second dimension of the Sobol
+	 * sequence, from the primitive polynomial x + 1: m(1) = 1 and m(k) = 2
+	 * m(k - 1) xor m(k - 1).
+	 */
+	private static int[] getDirections() {
+		int[] directions = new int[32];
+		long m = 1;
+		for (int k = 1; k <= 32; k++) {
+			directions[k - 1] = (int) (m << (32 - k));
+			m = (m << 1) ^ m;
+		}
+		return directions;
+	}
+
+	/**
+	 * Owen scrambles the given fixed point fraction of 32 bits with the given
+	 * seed: every bit is flipped depending on the bits above it only, so the
+	 * stratification of the points is kept.
+	 */
+	static int scramble(int value, int seed) {
+		value = Integer.reverse(value);
+		// the Laine-Karras permutation, which only propagates bits upwards
+		value ^= value * 0x3D20ADEA;
+		value += seed;
+		value *= (seed >>> 16) | 1;
+		value ^= value * 0x05526C56;
+		value ^= value * 0x53A22864;
+		return Integer.reverse(value);
+	}
+}
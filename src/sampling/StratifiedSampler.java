@@ -0,0 +1,79 @@
+package sampling;
+
+/**
+ * A sampler dividing every pair of dimensions of a pixel into a grid of
+ * strata, with one jittered sample per stratum.
+ *
+ * The strata form a grid of n by n, where n is the ceiling of the square root
+ * of the number of samples per pixel. Every pair of dimensions visits the
+ * strata in an order shuffled per pixel and per pair, so the dimensions are
+ * not correlated, and a pixel which stops taking samples early, as with
+ * adaptive sampling, still has its samples spread over the pixel rather than
+ * over its first rows of strata.
+ */
+public class StratifiedSampler extends Sampler {
+
+	/**
+	 * The number of strata along every dimension.
+	 */
+	private final int strata;
+
+	/**
+	 * Creates a new stratified sampler with the given seed, taking the given
+	 * number of samples for every pixel.
+	 *
+	 * @throws IllegalArgumentException
+	 *             when the number of samples per pixel is smaller than one.
+	 */
+	public StratifiedSampler(long seed, int samplesPerPixel) throws IllegalArgumentException {
+		super(seed, samplesPerPixel);
+		this.strata = (int) Math.ceil(Math.sqrt(samplesPerPixel));
+	}
+
+	@Override
+	protected double get(int x, int y, int index, int dimension) {
+		int cells = strata * strata;
+		int cell = index % cells;
+		// shuffle the strata of every pair of dimensions, so every prefix of
+		// the samples of a pixel is spread over it as well
+		cell = permute(cell, cells, (int) hash(seed, x, y, -1, dimension / 2));
+		int stratum = dimension % 2 == 0 ? cell % strata : cell / strata;
+		double jitter = toUnit(hash(seed, x, y, index, dimension));
+		return Math.min((stratum + jitter) / strata, ONE_MINUS_EPSILON);
+	}
+
+	/**
+	 * Returns the element at the given index of a pseudo-random permutation
+	 * of [0, length) selected by the given hash, without storing the
+	 * permutation (Kensler, "Correlated Multi-Jittered Sampling").
+	 */
+	static int permute(int index, int length, int hash) {
+		int w = length - 1;
+		w |= w >>> 1;
+		w |= w >>> 2;
+		w |= w >>> 4;
+		w |= w >>> 8;
+		w |= w >>> 16;
+		do {
+			index ^= hash;
+			index *= 0xE170893D;
+			index ^= hash >>> 16;
+			index ^= (index & w) >>> 4;
+			index ^= hash >>> 8;
+			index *= 0x0929EB3F;
+			index ^= hash >>> 23;
+			index ^= (index & w) >>> 1;
+			index *= 1 | hash >>> 27;
+			index *= 0x6935FA69;
+			index ^= (index & w) >>> 11;
+			index *= 0x74DCB303;
+			index ^= (index & w) >>> 2;
+			index *= 0x9E501CC3;
+			index ^= (index & w) >>> 2;
+			index *= 0xC860A3DF;
+			index &= w;
+			index ^= index >>> 5;
+		} while (Integer.compareUnsigned(index, length) >= 0);
+		return Integer.remainderUnsigned(index + hash, length);
+	}
+}
@@ -25,45 +25,60 @@ public class AxisAlignedBox implements Shape {
 			return null;
 		}
 		
-		Vector o = ray.origin.toVector();
-		Vector dir = ray.direction;
-		double tmin = 0;
-		double tmax = Double.MAX_VALUE;
-		
-		if (dir.x != 0.0) {
-			double tx1 = -o.x/dir.x;
-			double tx2 = (1.0-o.x)/dir.x;
-			
-			tmin = Math.min(tx1, tx2);
-			tmax = Math.max(tx1, tx2);
-		}
-		
-		if (dir.y != 0.0) {
-			double ty1 = -o.y/dir.y;
-			double ty2 = (1.0-o.y)/dir.y;
-		
-			tmin = Math.max(tmin, Math.min(ty1, ty2));
-			tmax = Math.min(tmax, Math.max(ty1, ty2));
-		}
-		if (dir.z != 0.0) {
-			double tz1 = -o.z/dir.z;
-			double tz2 = (1.0-o.z)/dir.z;
-			
-			tmin = Math.max(tmin, Math.min(tz1, tz2));
-			tmax = Math.min(tmax, Math.max(tz1, tz2));
+		double t = getHitParameter(ray, 0, 0, 0, 1, 1, 1);
+		if (t <= 0) {
+			return null;
 		}
+		Point intersectionPoint = ray.origin.add(ray.direction.scale(t));
+		return new Intersection(intersectionPoint, this, ray, getNormal(intersectionPoint), t);
+	}
+
+	@Override
+	public boolean intersects(Ray ray, double tMax) {
+		double t = getHitParameter(ray, 0, 0, 0, 1, 1, 1);
+		return t > 0 && t < tMax;
+	}
 
-		if (tmin <= tmax && tmax > 0) {
-			Point intersectionPoint;
-			if (tmin > 0) {
-				intersectionPoint = ray.origin.add(ray.direction.scale(tmin));
-			} else {
-				intersectionPoint = ray.origin.add(ray.direction.scale(tmax));
-			}
-			return new Intersection(intersectionPoint, this, ray, getNormal(intersectionPoint));
+	@Override
+	public boolean intersect(Ray ray, Hit hit) {
+		return hit.record(getIntersection(ray), ray);
+	}
+
+	@Override
+	public Intersection getIntersection(Ray ray, Hit hit) {
+		return getIntersection(ray);
+	}
+
+	/**
+	 * Returns the ray parameter at which the given ray hits the box with the
+	 * given bounds, or -1 when it misses the box.
+	 * 
+	 * The ray enters and leaves every slab at the planes selected by the sign
+	 * of its direction. An axis-parallel ray starting in a plane of the box
+	 * yields NaN for that plane, which the comparisons ignore.
+	 */
+	protected static double getHitParameter(Ray ray, double minx, double miny,
+			double minz, double maxx, double maxy, double maxz) {
+		double ox = ray.origin.x, oy = ray.origin.y, oz = ray.origin.z;
+		int signs = ray.signs;
+		double tNear = Double.NEGATIVE_INFINITY;
+		double tFar = Double.POSITIVE_INFINITY;
+		double near = ((signs & 1) == 0 ? minx : maxx) - ox;
+		double far = ((signs & 1) == 0 ? maxx : minx) - ox;
+		if (near * ray.invX > tNear) tNear = near * ray.invX;
+		if (far * ray.invX < tFar) tFar = far * ray.invX;
+		near = ((signs & 2) == 0 ? miny : maxy) - oy;
+		far = ((signs & 2) == 0 ? maxy : miny) - oy;
+		if (near * ray.invY > tNear) tNear = near * ray.invY;
+		if (far * ray.invY < tFar) tFar = far * ray.invY;
+		near = ((signs & 4) == 0 ? minz : maxz) - oz;
+		far = ((signs & 4) == 0 ? maxz : minz) - oz;
+		if (near * ray.invZ > tNear) tNear = near * ray.invZ;
+		if (far * ray.invZ < tFar) tFar = far * ray.invZ;
+		if (tNear <= tFar && tFar > 0) {
+			return tNear > 0 ? tNear : tFar;
 		}
-		
-		return null;
+		return -1;
 	}
 
 	@Override
@@ -71,10 +71,26 @@ public class Cylinder implements Shape {
 		}
 		Point intersectionPoint = ray.origin.add(ray.direction.scale(closest));
 		
-		return new Intersection(intersectionPoint, this, ray, getNormal(intersectionPoint));
+		return new Intersection(intersectionPoint, this, ray, getNormal(intersectionPoint), closest);
 		
 	}
 
+	@Override
+	public boolean intersects(Ray ray, double tMax) {
+		Intersection i = getIntersection(ray);
+		return i != null && i.getT() < tMax;
+	}
+
+	@Override
+	public boolean intersect(Ray ray, Hit hit) {
+		return hit.record(getIntersection(ray), ray);
+	}
+
+	@Override
+	public Intersection getIntersection(Ray ray, Hit hit) {
+		return getIntersection(ray);
+	}
+
 	@Override
 	public Vector getNormal(Point p) {
 		double bias = Math.pow(10,  -10);
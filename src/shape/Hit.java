@@ -0,0 +1,87 @@
+package shape;
+
+import math.Ray;
+
+/**
+ * The closest hit found so far by a ray, as recorded during traversal.
+ *
+ * A hit only holds what is needed to find the hit surface again: the ray
+ * parameter, the indices of the instance and the primitive that were hit and
+ * the barycentric coordinates on that primitive. The full {@link Intersection}
+ * with its normal, texture coordinates and colour is computed once for the
+ * final hit by {@link Shape#getIntersection(Ray, Hit)}, instead of for
+ * every candidate hit during traversal.
+ *
+ * Every level of a hierarchy writes its own index: the top level writes the
+ * index of the instance, a mesh writes the index of the triangle. Shapes
+ * without primitives set the primitive to {@link #NONE}.
+ */
+public class Hit {
+
+	public static final int NONE = -1;
+
+	/**
+	 * The ray parameter of the hit. This is preserved by the affine
+	 * transformations of instances, so it is the same in world and object
+	 * space.
+	 */
+	public double t;
+
+	/**
+	 * The index of the instance of the top level which was hit.
+	 */
+	public int instance = NONE;
+
+	/**
+	 * The index of the primitive of the instanced shape which was hit.
+	 */
+	public int primitive = NONE;
+
+	/**
+	 * The barycentric coordinates of the hit with respect to the second and
+	 * the third corner of the triangle which was hit.
+	 */
+	public double u, v;
+
+	/**
+	 * Creates an empty hit for the given ray. Hits beyond the maximum ray
+	 * parameter of the ray are never recorded.
+	 */
+	public Hit(Ray ray) {
+		this.t = ray.tMax;
+	}
+
+	/**
+	 * Empties this hit for the given ray, so it can be reused.
+	 */
+	public void reset(Ray ray) {
+		t = ray.tMax;
+		instance = NONE;
+		primitive = NONE;
+		u = 0;
+		v = 0;
+	}
+
+	/**
+	 * Records the given intersection of a shape without primitives when it is
+	 * closer than the hit recorded so far.
+	 *
+	 * @param intersection
+	 *            the intersection of the given ray, or null for a miss.
+	 * @param ray
+	 *            the ray the intersection was found for.
+	 * @return true when the intersection was recorded.
+	 */
+	public boolean record(Intersection intersection, Ray ray) {
+		if (intersection == null) {
+			return false;
+		}
+		double parameter = intersection.getT();
+		if (!(parameter < t)) {
+			return false;
+		}
+		t = parameter;
+		primitive = NONE;
+		return true;
+	}
+}
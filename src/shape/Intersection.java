@@ -4,6 +4,7 @@ import film.RGBSpectrum;
 import math.Point;
 import math.Ray;
 import math.Vector;
+import util.Pair;
 
 public class Intersection {
 	
@@ -11,13 +12,33 @@ public class Intersection {
 	private Shape shape;
 	private Ray ray;
 	private Vector normal;
+	private Pair<Double, Double> uv;
 	public RGBSpectrum color;
+	/**
+	 * The ray parameter of this intersection, or NaN when it has not been
+	 * computed yet.
+	 */
+	private double t;
 
 	public Intersection(Point cordinate, Shape shape, Ray ray, Vector normal) {
 		this(cordinate, shape, ray, normal, null);
 	}
+
+	public Intersection(Point cordinate, Shape shape, Ray ray, Vector normal, double t) {
+		this(cordinate, shape, ray, normal, null, t);
+	}
 	
 	public Intersection(Point cordinate, Shape shape, Ray ray, Vector normal, RGBSpectrum color) {
+		this(cordinate, shape, ray, normal, color, Double.NaN);
+	}
+
+	/**
+	 * Creates an intersection of the given ray at the given ray parameter,
+	 * which is NaN when it is not known.
+	 */
+	public Intersection(Point cordinate, Shape shape, Ray ray, Vector normal, RGBSpectrum color,
+			double t) {
+		this.t = t;
 		this.cordinate = cordinate;
 		this.shape = shape;
 		this.ray = ray;
@@ -41,14 +62,41 @@ public class Intersection {
 		return ray;
 	}
 	public double getDistance() {
-		Vector distanceVector = ray.origin.subtract(cordinate);
-		return distanceVector.length();
+		return getT() * ray.direction.length();
+	}
+
+	/**
+	 * Returns the ray parameter of this intersection. Hits are ordered by
+	 * their ray parameter, which is the same in world and object space.
+	 */
+	public double getT() {
+		if (Double.isNaN(t)) {
+			Vector distanceVector = ray.origin.subtract(cordinate);
+			t = distanceVector.length() / ray.direction.length();
+		}
+		return t;
 	}
 
 	public Vector getNormal() {
 		return normal;
 	}
 
+	/**
+	 * Returns the texture coordinates of this intersection. These are the
+	 * coordinates set when the intersection was found, or else the ones the
+	 * shape computes for the intersection point.
+	 */
+	public Pair<Double, Double> getUV() {
+		if (uv != null) {
+			return uv;
+		}
+		return shape.getUV(cordinate);
+	}
+
+	public void setUV(Pair<Double, Double> uv) {
+		this.uv = uv;
+	}
+
 	public RGBSpectrum getColor() {
 		return color;
 	}
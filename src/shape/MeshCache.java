@@ -0,0 +1,176 @@
+package shape;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import acceleration.FlatBVH;
+
+/**
+ * A binary cache of a parsed mesh and its flattened bounding volume
+ * hierarchy, stored next to the object file it was built from.
+ *
+ * The cache holds the vertex, normal and texture coordinate arrays and the
+ * index buffers of the mesh followed by the nodes of the hierarchy. It is only
+ * used when it was written for an object file with the same content hash and
+ * with the same builder settings, otherwise it is rebuilt. Caches are read through a memory
+ * mapped file and written to a temporary file which then atomically replaces
+ * the old cache, so concurrent renders never see a partially written cache.
+ */
+class MeshCache {
+
+	static final String EXTENSION = ".cache";
+
+	private static final int MAGIC = 0x4d455348;
+	private static final int VERSION = 2;
+	private static final int HASH_LENGTH = 32;
+
+	/**
+	 * Returns the SHA-256 hash of the content of the given file.
+	 */
+	static byte[] hash(File file) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			digest.update(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+		return digest.digest();
+	}
+
+	/**
+	 * Loads the given mesh from the given cache.
+	 *
+	 * @return false when there is no cache, or when it was written for a
+	 *         different object file, builder or cache version.
+	 * @throws IOException
+	 *             when the cache cannot be read or is corrupt. The mesh may
+	 *             then be partially loaded.
+	 */
+	static boolean load(File cache, byte[] hash, String settings, PolygonMesh mesh)
+			throws IOException {
+		if (!cache.isFile()) {
+			return false;
+		}
+		MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(cache.toPath(), StandardOpenOption.READ)) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		try {
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+				return false;
+			}
+			byte[] cachedHash = new byte[HASH_LENGTH];
+			buffer.get(cachedHash);
+			byte[] cachedSettings = new byte[buffer.getInt()];
+			buffer.get(cachedSettings);
+			if (!Arrays.equals(hash, cachedHash)
+					|| !settings.equals(new String(cachedSettings, StandardCharsets.UTF_8))) {
+				return false;
+			}
+
+			mesh.vertices = getDoubles(buffer);
+			mesh.normals = getDoubles(buffer);
+			mesh.uvs = getDoubles(buffer);
+			mesh.vertexIndices = getInts(buffer);
+			mesh.normalIndices = getInts(buffer);
+			mesh.uvIndices = getInts(buffer);
+			checkIndices(mesh.vertexIndices, mesh.vertices.length / 3, false);
+			checkIndices(mesh.normalIndices, mesh.normals.length / 3, true);
+			checkIndices(mesh.uvIndices, mesh.uvs.length / 2, true);
+			mesh.flat = FlatBVH.read(buffer, mesh);
+		} catch (RuntimeException e) {
+			// a truncated buffer or an index out of range
+			throw new IOException("corrupt mesh cache " + cache, e);
+		}
+		return true;
+	}
+
+	/**
+	 * Writes the given mesh and its hierarchy to the given cache.
+	 */
+	static void store(File cache, byte[] hash, String settings, PolygonMesh mesh)
+			throws IOException {
+		byte[] settingsBytes = settings.getBytes(StandardCharsets.UTF_8);
+		int size = 4 + 4 + HASH_LENGTH + 4 + settingsBytes.length
+				+ 3 * 4 + 8 * (mesh.vertices.length + mesh.normals.length + mesh.uvs.length)
+				+ 3 * 4 + 4 * (mesh.vertexIndices.length + mesh.normalIndices.length
+						+ mesh.uvIndices.length)
+				+ mesh.flat.getSerializedSize();
+		ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.put(hash);
+		buffer.putInt(settingsBytes.length);
+		buffer.put(settingsBytes);
+		putDoubles(buffer, mesh.vertices);
+		putDoubles(buffer, mesh.normals);
+		putDoubles(buffer, mesh.uvs);
+		putInts(buffer, mesh.vertexIndices);
+		putInts(buffer, mesh.normalIndices);
+		putInts(buffer, mesh.uvIndices);
+		mesh.flat.write(buffer);
+		buffer.flip();
+
+		File temporary = File.createTempFile(cache.getName(), ".tmp", cache.getAbsoluteFile().getParentFile());
+		try {
+			try (FileChannel channel = FileChannel.open(temporary.toPath(), StandardOpenOption.WRITE)) {
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+			}
+			Files.move(temporary.toPath(), cache.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temporary.toPath());
+		}
+	}
+
+	private static void checkIndices(int[] indices, int size, boolean optional)
+			throws IllegalArgumentException {
+		for (int index : indices) {
+			if (index >= size || index < (optional ? ObjFile.NONE : 0))
+				throw new IllegalArgumentException("index " + index + " out of range!");
+		}
+	}
+
+	private static void putDoubles(ByteBuffer buffer, double[] values) {
+		buffer.putInt(values.length);
+		buffer.asDoubleBuffer().put(values);
+		buffer.position(buffer.position() + 8 * values.length);
+	}
+
+	private static void putInts(ByteBuffer buffer, int[] values) {
+		buffer.putInt(values.length);
+		buffer.asIntBuffer().put(values);
+		buffer.position(buffer.position() + 4 * values.length);
+	}
+
+	private static double[] getDoubles(ByteBuffer buffer) {
+		double[] result = new double[buffer.getInt()];
+		buffer.asDoubleBuffer().get(result);
+		buffer.position(buffer.position() + 8 * result.length);
+		return result;
+	}
+
+	private static int[] getInts(ByteBuffer buffer) {
+		int[] result = new int[buffer.getInt()];
+		buffer.asIntBuffer().get(result);
+		buffer.position(buffer.position() + 4 * result.length);
+		return result;
+	}
+}
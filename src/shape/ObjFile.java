@@ -0,0 +1,463 @@
+package shape;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import util.DoubleArrayList;
+import util.IntArrayList;
+
+/**
+ * The vertices, normals, texture coordinates and triangles of a Wavefront
+ * object file.
+ *
+ * The file is memory mapped and split into chunks at line boundaries which
+ * are parsed concurrently, straight from the bytes and into primitive arrays.
+ * Faces may be given as v, v/vt, v//vn or v/vt/vn, with negative indices
+ * relative to the end of the data read so far. Polygons with more than three
+ * corners are split into a fan of triangles. Lines with other keywords are
+ * ignored.
+ */
+public class ObjFile {
+
+	/**
+	 * Marks a missing texture coordinate or normal index in {@link #faces}.
+	 */
+	public static final int NONE = -1;
+
+	/**
+	 * Marks an omitted index while parsing a face, zero is not a valid index.
+	 */
+	private static final int MISSING = 0;
+
+	private static final int chunk_size = 1 << 22;
+
+	/**
+	 * The x, y and z coordinate of every vertex.
+	 */
+	public final double[] vertices;
+
+	/**
+	 * The x, y and z coordinate of every normal, as given in the file.
+	 */
+	public final double[] normals;
+
+	/**
+	 * The u and v coordinate of every texture coordinate.
+	 */
+	public final double[] uvs;
+
+	/**
+	 * The zero based vertex, texture coordinate and normal index of every
+	 * corner of every triangle, nine per triangle.
+	 */
+	public final int[] faces;
+
+	private ObjFile(double[] vertices, double[] normals, double[] uvs, int[] faces) {
+		this.vertices = vertices;
+		this.normals = normals;
+		this.uvs = uvs;
+		this.faces = faces;
+	}
+
+	public int getNumberOfTriangles() {
+		return faces.length / 9;
+	}
+
+	/**
+	 * Parses the given object file.
+	 *
+	 * @throws IOException
+	 *             when the file cannot be read.
+	 * @throws IllegalArgumentException
+	 *             when a face refers to an element which does not exist.
+	 */
+	public static ObjFile read(File file) throws IOException, IllegalArgumentException {
+		List<ChunkTask> tasks = new ArrayList<>();
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			for (long start = 0; start < size || start == 0; start += chunk_size) {
+				long end = Math.min(size, start + chunk_size);
+				// map one byte before the chunk to find its first line and one
+				// extra chunk to finish its last line
+				long offset = Math.max(0, start - 1);
+				long length = Math.min(size, end + chunk_size) - offset;
+				MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+				tasks.add(new ChunkTask(buffer, (int) (start - offset), (int) (end - offset), start == 0));
+			}
+		}
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+		for (ChunkTask task : tasks) {
+			pool.execute(task);
+		}
+		List<Chunk> chunks = new ArrayList<>();
+		for (ChunkTask task : tasks) {
+			chunks.add(task.join());
+		}
+		return merge(chunks);
+	}
+
+	/**
+	 * Concatenates the chunks and resolves their relative indices.
+	 */
+	private static ObjFile merge(List<Chunk> chunks) throws IllegalArgumentException {
+		int nbVertices = 0, nbNormals = 0, nbUVs = 0, nbFaces = 0;
+		for (Chunk chunk : chunks) {
+			nbVertices += chunk.vertices.size();
+			nbNormals += chunk.normals.size();
+			nbUVs += chunk.uvs.size();
+			nbFaces += chunk.faces.size();
+		}
+		double[] vertices = new double[nbVertices];
+		double[] normals = new double[nbNormals];
+		double[] uvs = new double[nbUVs];
+		int[] faces = new int[nbFaces];
+		int[] counts = new int[3];
+		int faceOffset = 0;
+		for (Chunk chunk : chunks) {
+			chunk.vertices.copyTo(vertices, 3 * counts[0]);
+			chunk.uvs.copyTo(uvs, 2 * counts[1]);
+			chunk.normals.copyTo(normals, 3 * counts[2]);
+			chunk.faces.copyTo(faces, faceOffset);
+			for (int i = 0; i < chunk.relative.size(); i++) {
+				int position = faceOffset + chunk.relative.get(i);
+				faces[position] += counts[position % 3];
+				if (faces[position] < 0) {
+					throw new IllegalArgumentException("face " + (position / 9)
+							+ " refers to an element before the start of the file!");
+				}
+			}
+			counts[0] += chunk.vertices.size() / 3;
+			counts[1] += chunk.uvs.size() / 2;
+			counts[2] += chunk.normals.size() / 3;
+			faceOffset += chunk.faces.size();
+		}
+		for (int i = 0; i < faces.length; i++) {
+			if (faces[i] >= counts[i % 3]) {
+				throw new IllegalArgumentException("face " + (i / 9) + " refers to a missing element!");
+			}
+		}
+		return new ObjFile(vertices, normals, uvs, faces);
+	}
+
+	/**
+	 * The data parsed from one chunk.
+	 */
+	private static class Chunk {
+
+		private final DoubleArrayList vertices = new DoubleArrayList(1024);
+		private final DoubleArrayList normals = new DoubleArrayList(1024);
+		private final DoubleArrayList uvs = new DoubleArrayList(1024);
+		private final IntArrayList faces = new IntArrayList(1024);
+
+		/**
+		 * The positions in {@link #faces} of the indices which are relative
+		 * to the start of this chunk instead of absolute.
+		 */
+		private final IntArrayList relative = new IntArrayList();
+	}
+
+	/**
+	 * Parses the lines starting in a range of a mapped buffer.
+	 */
+	private static class ChunkTask extends RecursiveTask<Chunk> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final MappedByteBuffer buffer;
+		private final int start;
+		private final int end;
+		private final boolean first;
+
+		private int position;
+		private final Chunk chunk = new Chunk();
+		/**
+		 * The indices of the corners of the current face as given in the
+		 * file, with {@link #MISSING} for an omitted index.
+		 */
+		private final IntArrayList polygon = new IntArrayList();
+		private final double[] values = new double[3];
+
+		public ChunkTask(MappedByteBuffer buffer, int start, int end, boolean first) {
+			this.buffer = buffer;
+			this.start = start;
+			this.end = end;
+			this.first = first;
+		}
+
+		@Override
+		protected Chunk compute() {
+			position = start;
+			if (!first && buffer.get(start - 1) != '\n') {
+				// the line was started by the previous chunk
+				skipLine();
+			}
+			while (position < end) {
+				int lineStart = position;
+				try {
+					parseLine();
+				} catch (NumberFormatException e) {
+					position = lineStart;
+					int lineEnd = skipLine();
+					System.out.println("parsing error in object file");
+					System.out.println(getText(lineStart, lineEnd));
+				}
+			}
+			return chunk;
+		}
+
+		private void parseLine() throws NumberFormatException {
+			skipSpaces();
+			int keyword = position;
+			while (position < buffer.limit() && !isSpace(buffer.get(position))
+					&& !isEndOfLine(buffer.get(position))) {
+				position++;
+			}
+			int length = position - keyword;
+			byte c0 = length > 0 ? buffer.get(keyword) : 0;
+			byte c1 = length > 1 ? buffer.get(keyword + 1) : 0;
+			if (length == 1 && c0 == 'v') {
+				parseDoubles(chunk.vertices, 3, 3);
+			} else if (length == 2 && c0 == 'v' && c1 == 'n') {
+				parseDoubles(chunk.normals, 3, 3);
+			} else if (length == 2 && c0 == 'v' && c1 == 't') {
+				parseDoubles(chunk.uvs, 2, 1);
+			} else if (length == 1 && c0 == 'f') {
+				parseFace();
+			}
+			skipLine();
+		}
+
+		/**
+		 * Parses the given number of values, of which the trailing optional
+		 * ones default to zero. Nothing is added when the line is invalid.
+		 */
+		private void parseDoubles(DoubleArrayList target, int count, int required)
+				throws NumberFormatException {
+			for (int i = 0; i < count; i++) {
+				skipSpaces();
+				if (i >= required && (position >= buffer.limit() || isEndOfLine(buffer.get(position)))) {
+					values[i] = 0;
+				} else {
+					values[i] = parseDouble();
+				}
+			}
+			for (int i = 0; i < count; i++) {
+				target.add(values[i]);
+			}
+		}
+
+		private void parseFace() throws NumberFormatException {
+			polygon.clear();
+			skipSpaces();
+			while (position < buffer.limit() && !isEndOfLine(buffer.get(position))) {
+				for (int k = 0; k < 3; k++) {
+					if (k > 0) {
+						if (position >= buffer.limit() || buffer.get(position) != '/') {
+							polygon.add(MISSING);
+							continue;
+						}
+						position++;
+					}
+					if (position < buffer.limit() && isDigitOrSign(buffer.get(position))) {
+						int index = parseInt();
+						if (index == MISSING) {
+							throw new NumberFormatException("indices start at one");
+						}
+						polygon.add(index);
+					} else if (k == 0) {
+						throw new NumberFormatException("missing vertex index");
+					} else {
+						polygon.add(MISSING);
+					}
+				}
+				skipSpaces();
+			}
+			int corners = polygon.size() / 3;
+			if (corners < 3) {
+				throw new NumberFormatException("a face needs at least three corners");
+			}
+			// triangulate the polygon as a fan around its first corner
+			for (int corner = 1; corner + 1 < corners; corner++) {
+				addCorner(0);
+				addCorner(corner);
+				addCorner(corner + 1);
+			}
+		}
+
+		private void addCorner(int corner) {
+			int[] sizes = { chunk.vertices.size() / 3, chunk.uvs.size() / 2, chunk.normals.size() / 3 };
+			for (int k = 0; k < 3; k++) {
+				int index = polygon.get(3 * corner + k);
+				if (index == MISSING) {
+					chunk.faces.add(NONE);
+				} else if (index > 0) {
+					chunk.faces.add(index - 1);
+				} else {
+					// relative to the elements read so far, resolved when merging
+					chunk.relative.add(chunk.faces.size());
+					chunk.faces.add(sizes[k] + index);
+				}
+			}
+		}
+
+		/**
+		 * Parses a decimal number. Numbers with at most 18 significant
+		 * digits and a small exponent are computed as an exact integer and a
+		 * single division or multiplication by an exact power of ten, which
+		 * yields the same correctly rounded value as Double.parseDouble. Other
+		 * numbers are handed to Double.parseDouble.
+		 */
+		private double parseDouble() throws NumberFormatException {
+			int numberStart = position;
+			boolean negative = false;
+			if (position < buffer.limit() && (buffer.get(position) == '-' || buffer.get(position) == '+')) {
+				negative = buffer.get(position) == '-';
+				position++;
+			}
+			long mantissa = 0;
+			int digits = 0;
+			int exponent = 0;
+			boolean any = false;
+			byte c;
+			while (position < buffer.limit() && (c = buffer.get(position)) >= '0' && c <= '9') {
+				if (digits < 18) {
+					mantissa = 10 * mantissa + (c - '0');
+					if (mantissa != 0) {
+						digits++;
+					}
+				} else {
+					exponent++;
+				}
+				any = true;
+				position++;
+			}
+			if (position < buffer.limit() && buffer.get(position) == '.') {
+				position++;
+				while (position < buffer.limit() && (c = buffer.get(position)) >= '0' && c <= '9') {
+					if (digits < 18) {
+						mantissa = 10 * mantissa + (c - '0');
+						exponent--;
+						if (mantissa != 0) {
+							digits++;
+						}
+					}
+					any = true;
+					position++;
+				}
+			}
+			if (!any) {
+				throw new NumberFormatException("not a number");
+			}
+			if (position < buffer.limit() && (buffer.get(position) == 'e' || buffer.get(position) == 'E')) {
+				position++;
+				boolean negativeExponent = false;
+				if (position < buffer.limit() && (buffer.get(position) == '-' || buffer.get(position) == '+')) {
+					negativeExponent = buffer.get(position) == '-';
+					position++;
+				}
+				int value = 0;
+				boolean anyExponent = false;
+				while (position < buffer.limit() && (c = buffer.get(position)) >= '0' && c <= '9') {
+					value = Math.min(10000, 10 * value + (c - '0'));
+					anyExponent = true;
+					position++;
+				}
+				if (!anyExponent) {
+					throw new NumberFormatException("missing exponent");
+				}
+				exponent += negativeExponent ? -value : value;
+			}
+			if (position < buffer.limit() && !isSpace(buffer.get(position))
+					&& !isEndOfLine(buffer.get(position))) {
+				throw new NumberFormatException("unexpected character in number");
+			}
+			if (mantissa >= (1L << 53) || exponent < -22 || exponent > 22) {
+				return Double.parseDouble(getText(numberStart, position));
+			}
+			double result = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent]
+					: mantissa * POWERS_OF_TEN[exponent];
+			return negative ? -result : result;
+		}
+
+		private int parseInt() throws NumberFormatException {
+			boolean negative = false;
+			if (buffer.get(position) == '-' || buffer.get(position) == '+') {
+				negative = buffer.get(position) == '-';
+				position++;
+			}
+			long value = 0;
+			boolean any = false;
+			byte c;
+			while (position < buffer.limit() && (c = buffer.get(position)) >= '0' && c <= '9') {
+				value = 10 * value + (c - '0');
+				if (value > Integer.MAX_VALUE) {
+					throw new NumberFormatException("index out of range");
+				}
+				any = true;
+				position++;
+			}
+			if (!any) {
+				throw new NumberFormatException("not an index");
+			}
+			return (int) (negative ? -value : value);
+		}
+
+		private void skipSpaces() {
+			while (position < buffer.limit() && isSpace(buffer.get(position))) {
+				position++;
+			}
+		}
+
+		/**
+		 * Moves to the start of the next line and returns the end of the
+		 * current one.
+		 */
+		private int skipLine() {
+			while (position < buffer.limit() && buffer.get(position) != '\n') {
+				position++;
+			}
+			int lineEnd = position;
+			if (position < buffer.limit()) {
+				position++;
+			}
+			return lineEnd;
+		}
+
+		private String getText(int from, int to) {
+			byte[] bytes = new byte[to - from];
+			for (int i = 0; i < bytes.length; i++) {
+				bytes[i] = buffer.get(from + i);
+			}
+			return new String(bytes, StandardCharsets.ISO_8859_1).trim();
+		}
+	}
+
+	private static boolean isSpace(byte c) {
+		return c == ' ' || c == '\t';
+	}
+
+	private static boolean isEndOfLine(byte c) {
+		return c == '\n' || c == '\r' || c == '#';
+	}
+
+	private static boolean isDigitOrSign(byte c) {
+		return (c >= '0' && c <= '9') || c == '-' || c == '+';
+	}
+
+	private static final double[] POWERS_OF_TEN = new double[23];
+
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+			POWERS_OF_TEN[i] = 10 * POWERS_OF_TEN[i - 1];
+		}
+	}
+}
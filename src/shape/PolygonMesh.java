@@ -1,146 +1,535 @@
 package shape;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.NoSuchElementException;
-import java.util.StringTokenizer;
 
 import acceleration.BV;
 import acceleration.BVH;
+import acceleration.FlatBVH;
+import acceleration.PacketTraversable;
+import acceleration.PrimitiveSet;
+import acceleration.RayPacket;
 import math.Point;
 import math.Ray;
 import math.Vector;
 import util.Pair;
 
-public class PolygonMesh implements Shape {
-	
+/**
+ * A triangle mesh read from a Wavefront object file.
+ *
+ * The vertices, normals and texture coordinates are shared between the
+ * triangles and kept in primitive arrays, the triangles themselves are only
+ * indices into these arrays. The mesh is the primitive set of its own
+ * hierarchy, which intersects the triangles straight from the arrays.
+ */
+public class PolygonMesh implements Shape, PrimitiveSet, PacketTraversable {
 
-	public List<Point> vertices = new ArrayList<>();
-	public List<Vector> normals = new ArrayList<>();
-	public List<Double> us = new ArrayList<>();
-	public List<Double> vs = new ArrayList<>();
-	public List<MeshTriangle> triangles = new ArrayList<>();
-	public BV bv = null;
-	
+	private static final double parallel_bias = Math.pow(10, -10);
+	private static final double self_intersection_bias = Math.pow(10, -6);
+	private static final double bounds_bias = Math.pow(10, -5);
+
+	/**
+	 * The x, y and z coordinate of every vertex.
+	 */
+	double[] vertices = new double[0];
+
+	/**
+	 * The x, y and z coordinate of every normal, normalised.
+	 */
+	double[] normals = new double[0];
+
+	/**
+	 * The u and v coordinate of every texture coordinate.
+	 */
+	double[] uvs = new double[0];
+
+	/**
+	 * The vertex indices of the corners of every triangle, three per
+	 * triangle.
+	 */
+	int[] vertexIndices = new int[0];
+
+	/**
+	 * The normal indices of the corners of every triangle, or
+	 * {@link ObjFile#NONE} for a triangle which is shaded flat.
+	 */
+	int[] normalIndices = new int[0];
+
+	/**
+	 * The texture coordinate indices of the corners of every triangle, or
+	 * {@link ObjFile#NONE} when the corner has none.
+	 */
+	int[] uvIndices = new int[0];
+
+	/**
+	 * The edges from the first to the second and from the first to the third
+	 * corner of every triangle, six values per triangle.
+	 */
+	private double[] edges = new double[0];
+
+	/**
+	 * Whether the triangles of new meshes are intersected with the watertight
+	 * algorithm.
+	 */
+	private static boolean defaultWatertight = false;
+
+	/**
+	 * Whether the triangles are intersected with the watertight algorithm.
+	 */
+	private boolean watertight = defaultWatertight;
+
+	FlatBVH flat = null;
+
+	/**
+	 * The hierarchy which is traversed: {@link #flat} itself or its collapse
+	 * into a wider hierarchy.
+	 */
+	private Shape hierarchy = null;
 
 	public PolygonMesh(String filename) {
-		this.parseObjFile(filename);
+		this(findFile(filename), filename);
+	}
+
+	/**
+	 * Loads the mesh of the given object file, which is not searched for.
+	 */
+	public PolygonMesh(File file) {
+		this(file, file.getName());
+	}
+
+	private PolygonMesh(File file, String filename) {
 		double start = System.currentTimeMillis();
-		bv = BVH.buildBVPolygonMesh(triangles);
+		if (file == null) {
+			System.out.println("could not find file: " + filename);
+			computeEdges();
+			buildBVH();
+			return;
+		}
+		File cache = new File(file.getPath() + MeshCache.EXTENSION);
+		String settings = BVH.getBuildMode().name();
+		byte[] hash = null;
+		try {
+			hash = MeshCache.hash(file);
+			if (MeshCache.load(cache, hash, settings, this)) {
+				computeEdges();
+				hierarchy = BVH.collapse(flat);
+				System.out.println(String.format("Loaded %s from the mesh cache in: "
+						+ "\n%f seconds", filename, (System.currentTimeMillis()-start)/1000));
+				return;
+			}
+		} catch (IOException e) {
+			System.out.println("could not read the mesh cache of " + filename + ": " + e.getMessage());
+			clear();
+		}
+		boolean parsed = this.parseObjFile(file);
+		computeEdges();
+		buildBVH();
 		System.out.println(String.format("Built the bounding volume hierarchy in: "
 				+ "\n%f seconds", (System.currentTimeMillis()-start)/1000));
-		
+		if (parsed && hash != null) {
+			try {
+				MeshCache.store(cache, hash, settings, this);
+			} catch (IOException e) {
+				System.out.println("could not write the mesh cache of " + filename + ": " + e.getMessage());
+			}
+		}
 	}
 
-	protected void parseObjFile(String filename) {
-		BufferedReader reader = null;
-		try {
-			reader = new BufferedReader(new FileReader("src/shape/meshes/" + filename));
-		} catch (FileNotFoundException e1) {
-			try {
-				reader = new BufferedReader(new FileReader("ProjectCG/src/shape/meshes/" + filename));
-			} catch (FileNotFoundException e2) {
-				try {
-					reader = new BufferedReader(new FileReader("../src/shape/meshes/" + filename));
-					
-				} catch (FileNotFoundException e3) {
-					System.out.println("could not find file: " + filename);
-					
-				}
+	private void buildBVH() {
+		flat = BVH.build(this);
+		hierarchy = BVH.collapse(flat);
+	}
+
+	private void computeEdges() {
+		edges = new double[2 * vertexIndices.length];
+		for (int triangle = 0; triangle < getNumberOfTriangles(); triangle++) {
+			int a = 3 * vertexIndices[3 * triangle];
+			int b = 3 * vertexIndices[3 * triangle + 1];
+			int c = 3 * vertexIndices[3 * triangle + 2];
+			for (int k = 0; k < 3; k++) {
+				edges[6 * triangle + k] = vertices[b + k] - vertices[a + k];
+				edges[6 * triangle + 3 + k] = vertices[c + k] - vertices[a + k];
 			}
-			
 		}
-		try {
-			String CurrentLine = null;
-			while ((CurrentLine = reader.readLine()) != null) {
-				try {
-					parseLine(CurrentLine);
-				} catch (NoSuchElementException e) {
-					System.out.println("parsing error in object file");
-					System.out.println(CurrentLine);
-				}
+	}
+
+	/**
+	 * Sets whether the triangles are intersected with the watertight
+	 * algorithm, which never lets a ray slip through the shared edge of two
+	 * triangles but is slower than the default Mller-Trumbore test.
+	 */
+	public void setWatertight(boolean watertight) {
+		this.watertight = watertight;
+	}
+
+	public boolean isWatertight() {
+		return watertight;
+	}
+
+	/**
+	 * Sets whether the meshes which are loaded from now on are intersected
+	 * with the watertight algorithm, see {@link #setWatertight(boolean)}.
+	 */
+	public static void setDefaultWatertight(boolean watertight) {
+		PolygonMesh.defaultWatertight = watertight;
+	}
+
+	public static boolean isDefaultWatertight() {
+		return defaultWatertight;
+	}
+
+	/**
+	 * Removes the data of a partially loaded mesh.
+	 */
+	void clear() {
+		vertices = new double[0];
+		normals = new double[0];
+		uvs = new double[0];
+		vertexIndices = new int[0];
+		normalIndices = new int[0];
+		uvIndices = new int[0];
+		flat = null;
+		hierarchy = null;
+	}
+
+	public int getNumberOfTriangles() {
+		return vertexIndices.length / 3;
+	}
+
+	public FlatBVH getHierarchy() {
+		return flat;
+	}
+
+	private static File findFile(String filename) {
+		String[] directories = { "src/shape/meshes/", "ProjectCG/src/shape/meshes/",
+				"../src/shape/meshes/" };
+		for (String directory : directories) {
+			File file = new File(directory + filename);
+			if (file.isFile()) {
+				return file;
 			}
+		}
+		return null;
+	}
+
+	/**
+	 * Reads the triangles of the given object file into this mesh.
+	 *
+	 * @return false when the file could not be read, this mesh is then left
+	 *         empty.
+	 */
+	protected boolean parseObjFile(File file) {
+		ObjFile obj;
+		try {
+			obj = ObjFile.read(file);
 		} catch (IOException e) {
 			e.printStackTrace();
-		} finally {
-			try {
-				if (reader != null)
-					reader.close();
-			} catch (IOException ex) {
-				ex.printStackTrace();
-			}
+			return false;
+		}
+		vertices = obj.vertices;
+		normals = obj.normals;
+		uvs = obj.uvs;
+		for (int i = 0; i < normals.length; i += 3) {
+			double scale = 1.0 / Math.sqrt(normals[i] * normals[i] + normals[i + 1] * normals[i + 1]
+					+ normals[i + 2] * normals[i + 2]);
+			normals[i] *= scale;
+			normals[i + 1] *= scale;
+			normals[i + 2] *= scale;
+		}
+		int nbTriangles = obj.getNumberOfTriangles();
+		vertexIndices = new int[3 * nbTriangles];
+		uvIndices = new int[3 * nbTriangles];
+		normalIndices = new int[3 * nbTriangles];
+		for (int corner = 0; corner < 3 * nbTriangles; corner++) {
+			vertexIndices[corner] = obj.faces[3 * corner];
+			uvIndices[corner] = obj.faces[3 * corner + 1];
+			normalIndices[corner] = obj.faces[3 * corner + 2];
+		}
+		return true;
+	}
+
+	@Override
+	public int size() {
+		return getNumberOfTriangles();
+	}
+
+	@Override
+	public void getBounds(int triangle, double[] box, int offset) {
+		int a = 3 * vertexIndices[3 * triangle];
+		int b = 3 * vertexIndices[3 * triangle + 1];
+		int c = 3 * vertexIndices[3 * triangle + 2];
+		for (int k = 0; k < 3; k++) {
+			box[offset + k] = Math.min(Math.min(vertices[a + k] - bounds_bias,
+					vertices[b + k] - bounds_bias), vertices[c + k] - bounds_bias);
+			box[offset + 3 + k] = Math.max(Math.max(vertices[a + k] + bounds_bias,
+					vertices[b + k] + bounds_bias), vertices[c + k] + bounds_bias);
+		}
+	}
+
+	@Override
+	public boolean intersects(int triangle, Ray ray, double tMax) {
+		return !Double.isNaN(intersect(triangle, ray, tMax, null));
+	}
+
+	@Override
+	public boolean intersect(int triangle, Ray ray, Hit hit) {
+		double t = intersect(triangle, ray, hit.t, hit);
+		if (Double.isNaN(t)) {
+			return false;
 		}
+		hit.t = t;
+		hit.primitive = triangle;
+		return true;
 	}
 
-	public void parseLine(String currentLine) throws NoSuchElementException {
-		if (currentLine.equals("")) {
-			//do nothing
+	@Override
+	public void intersect(int triangle, RayPacket packet, long rays) {
+		for (; rays != 0; rays &= rays - 1) {
+			int i = Long.numberOfTrailingZeros(rays);
+			intersect(triangle, packet.getRay(i), packet.getHit(i));
 		}
-		else {
-			StringTokenizer st = new StringTokenizer(currentLine);
-			List<String> tokens = new ArrayList<>();
-			while (st.hasMoreTokens()) {
-				tokens.add(st.nextToken());
+	}
+
+	@Override
+	public void intersects(int triangle, RayPacket packet, long rays) {
+		for (; rays != 0; rays &= rays - 1) {
+			int i = Long.numberOfTrailingZeros(rays);
+			Ray ray = packet.getRay(i);
+			if (!packet.isOccluded(i) && intersects(triangle, ray, ray.tMax)) {
+				packet.occlude(i);
 			}
-			if (tokens.get(0).equals("v")) {
-				//new vertex
-				vertices.add(new Point(Double.parseDouble(tokens.get(1)), Double.parseDouble(tokens.get(2)), Double.parseDouble(tokens.get(3))));
+		}
+	}
+
+	/**
+	 * Interpolates the normal and the texture coordinates of the hit triangle
+	 * at the recorded barycentric coordinates. This runs once for every
+	 * shaded sample, so only the point, the normal and the intersection
+	 * itself are allocated.
+	 */
+	@Override
+	public Intersection getIntersection(Ray ray, Hit hit) {
+		int triangle = hit.primitive;
+		double w0 = 1 - hit.u - hit.v;
+		Point p = new Point(ray.origin.x + ray.direction.x * hit.t,
+				ray.origin.y + ray.direction.y * hit.t, ray.origin.z + ray.direction.z * hit.t);
+
+		double nx = 0, ny = 0, nz = 0;
+		Vector geometric = null;
+		for (int corner = 0; corner < 3; corner++) {
+			int n = normalIndices[3 * triangle + corner];
+			double weight = getBarycentric(corner, w0, hit);
+			if (n == ObjFile.NONE) {
+				if (geometric == null) {
+					geometric = getGeometricNormal(triangle);
+				}
+				nx += geometric.x * weight;
+				ny += geometric.y * weight;
+				nz += geometric.z * weight;
+			} else {
+				nx += normals[3 * n] * weight;
+				ny += normals[3 * n + 1] * weight;
+				nz += normals[3 * n + 2] * weight;
 			}
-			else if (tokens.get(0).equals("vn")) {
-				normals.add(new Vector(Double.parseDouble(tokens.get(1)), Double.parseDouble(tokens.get(2)), Double.parseDouble(tokens.get(3))));
+		}
+		Intersection intersection = new Intersection(p, this, ray, new Vector(nx, ny, nz).normalize(),
+				hit.t);
+
+		double u = 0, v = 0;
+		for (int corner = 0; corner < 3; corner++) {
+			int uv = uvIndices[3 * triangle + corner];
+			if (uv != ObjFile.NONE) {
+				double weight = getBarycentric(corner, w0, hit);
+				u += weight * uvs[2 * uv];
+				v += weight * uvs[2 * uv + 1];
 			}
-			else if (tokens.get(0).equals("vt")) {
-				us.add(Double.parseDouble(tokens.get(1)));
-				vs.add(Double.parseDouble(tokens.get(2)));
+		}
+		intersection.setUV(new Pair<Double, Double>(u, 1 - v));
+		return intersection;
+	}
+
+	/**
+	 * Returns the barycentric coordinate of the given corner of a hit, where
+	 * the first coordinate is given.
+	 */
+	private static double getBarycentric(int corner, double w0, Hit hit) {
+		return corner == 0 ? w0 : corner == 1 ? hit.u : hit.v;
+	}
+
+	/**
+	 * Returns the ray parameter at which the given ray hits the given
+	 * triangle, or NaN when it misses the triangle or hits it beyond the given
+	 * maximum. On a hit, the barycentric coordinates of the hit point with
+	 * respect to the second and the third corner are written to the given
+	 * hit, unless it is null.
+	 */
+	private double intersect(int triangle, Ray ray, double tMax, Hit hit) {
+		if (watertight) {
+			return intersectWatertight(triangle, ray, tMax, hit);
+		}
+		int e = 6 * triangle;
+		double e1x = edges[e], e1y = edges[e + 1], e1z = edges[e + 2];
+		double e2x = edges[e + 3], e2y = edges[e + 4], e2z = edges[e + 5];
+		Vector d = ray.direction;
+		double px = d.y * e2z - d.z * e2y;
+		double py = d.z * e2x - d.x * e2z;
+		double pz = d.x * e2y - d.y * e2x;
+		double det = e1x * px + e1y * py + e1z * pz;
+		if (Math.abs(det) < parallel_bias) {
+			return Double.NaN;
+		}
+		double inverse = 1.0 / det;
+
+		int a = 3 * vertexIndices[3 * triangle];
+		Point o = ray.origin;
+		double tx = o.x - vertices[a], ty = o.y - vertices[a + 1], tz = o.z - vertices[a + 2];
+		double u = (tx * px + ty * py + tz * pz) * inverse;
+		if (u < 0 || u > 1) {
+			return Double.NaN;
+		}
+		double qx = ty * e1z - tz * e1y;
+		double qy = tz * e1x - tx * e1z;
+		double qz = tx * e1y - ty * e1x;
+		double v = (d.x * qx + d.y * qy + d.z * qz) * inverse;
+		if (v < 0 || u + v > 1) {
+			return Double.NaN;
+		}
+		double t = (e2x * qx + e2y * qy + e2z * qz) * inverse;
+		if (!(t >= self_intersection_bias && t < tMax)) {
+			return Double.NaN;
+		}
+		if (hit != null) {
+			hit.u = u;
+			hit.v = v;
+		}
+		return t;
+	}
+
+	/**
+	 * The watertight ray/triangle test of Woop, Benthin and Wald. The corners
+	 * are translated to the ray origin and sheared so the ray points along
+	 * the z axis, after which the edge functions are evaluated in two
+	 * dimensions. Shared edges then evaluate to exactly the same values for
+	 * both triangles.
+	 */
+	private double intersectWatertight(int triangle, Ray ray, double tMax, Hit hit) {
+		ShearedRay shear = ShearedRay.get(ray);
+		int kx = shear.kx, ky = shear.ky, kz = shear.kz;
+		int a = 3 * vertexIndices[3 * triangle];
+		int b = 3 * vertexIndices[3 * triangle + 1];
+		int c = 3 * vertexIndices[3 * triangle + 2];
+		Point o = ray.origin;
+		double ox = o.get(kx), oy = o.get(ky), oz = o.get(kz);
+		double az = vertices[a + kz] - oz;
+		double bz = vertices[b + kz] - oz;
+		double cz = vertices[c + kz] - oz;
+		double ax = vertices[a + kx] - ox - shear.sx * az;
+		double ay = vertices[a + ky] - oy - shear.sy * az;
+		double bx = vertices[b + kx] - ox - shear.sx * bz;
+		double by = vertices[b + ky] - oy - shear.sy * bz;
+		double cx = vertices[c + kx] - ox - shear.sx * cz;
+		double cy = vertices[c + ky] - oy - shear.sy * cz;
+
+		double u = cx * by - cy * bx;
+		double v = ax * cy - ay * cx;
+		double w = bx * ay - by * ax;
+		if ((u < 0 || v < 0 || w < 0) && (u > 0 || v > 0 || w > 0)) {
+			return Double.NaN;
+		}
+		double det = u + v + w;
+		if (det == 0) {
+			return Double.NaN;
+		}
+		double t = (u * az + v * bz + w * cz) * shear.sz / det;
+		if (!(t >= self_intersection_bias && t < tMax)) {
+			return Double.NaN;
+		}
+		if (hit != null) {
+			hit.u = v / det;
+			hit.v = w / det;
+		}
+		return t;
+	}
+
+	/**
+	 * The shear of the last ray intersected watertight by the current thread.
+	 * Rays are immutable, so the shear is only computed once for all the
+	 * triangles a ray is tested against.
+	 */
+	private static class ShearedRay {
+
+		private static final ThreadLocal<ShearedRay> current = new ThreadLocal<ShearedRay>() {
+			@Override
+			protected ShearedRay initialValue() {
+				return new ShearedRay();
 			}
-			else if (tokens.get(0).equals("f")) {
-				StringTokenizer st1 = new StringTokenizer(tokens.get(1), "/");
-				StringTokenizer st2 = new StringTokenizer(tokens.get(2), "/");
-				StringTokenizer st3 = new StringTokenizer(tokens.get(3), "/");
-				Point a = vertices.get(Integer.parseInt(st1.nextToken())-1);
-				Point b = vertices.get(Integer.parseInt(st2.nextToken())-1);
-				Point c = vertices.get(Integer.parseInt(st3.nextToken())-1);
-				int i1 = Integer.parseInt(st1.nextToken());
-				int i2 = Integer.parseInt(st2.nextToken());
-				int i3 = Integer.parseInt(st3.nextToken());
-				List<Double> textureCoordinates = new ArrayList<>();
-				textureCoordinates.add(us.get(i1-1));
-				textureCoordinates.add(vs.get(i1-1));
-				textureCoordinates.add(us.get(i2-1));
-				textureCoordinates.add(vs.get(i2-1));
-				textureCoordinates.add(us.get(i3-1));
-				textureCoordinates.add(vs.get(i3-1));
-				Vector na = normals.get(Integer.parseInt(st1.nextToken())-1).normalize();
-				Vector nb = normals.get(Integer.parseInt(st2.nextToken())-1).normalize();
-				Vector nc = normals.get(Integer.parseInt(st3.nextToken())-1).normalize();
-				triangles.add(new MeshTriangle(a, b, c, na, nb, nc, textureCoordinates));
-				
+		};
+
+		private Ray ray;
+		private int kx, ky, kz;
+		private double sx, sy, sz;
+
+		static ShearedRay get(Ray ray) {
+			ShearedRay shear = current.get();
+			if (shear.ray != ray) {
+				shear.set(ray);
+			}
+			return shear;
+		}
+
+		private void set(Ray ray) {
+			this.ray = ray;
+			Vector d = ray.direction;
+			double x = Math.abs(d.x), y = Math.abs(d.y), z = Math.abs(d.z);
+			kz = x > y ? (x > z ? 0 : 2) : (y > z ? 1 : 2);
+			kx = (kz + 1) % 3;
+			ky = (kx + 1) % 3;
+			// swap the other axes to preserve the winding of the triangles
+			if (d.get(kz) < 0) {
+				int swap = kx;
+				kx = ky;
+				ky = swap;
 			}
+			sx = d.get(kx) / d.get(kz);
+			sy = d.get(ky) / d.get(kz);
+			sz = 1.0 / d.get(kz);
 		}
-		
+	}
+
+	private Vector getGeometricNormal(int triangle) {
+		int a = 3 * vertexIndices[3 * triangle];
+		int b = 3 * vertexIndices[3 * triangle + 1];
+		int c = 3 * vertexIndices[3 * triangle + 2];
+		Vector u = new Vector(vertices[b] - vertices[a], vertices[b + 1] - vertices[a + 1],
+				vertices[b + 2] - vertices[a + 2]);
+		Vector v = new Vector(vertices[c] - vertices[a], vertices[c + 1] - vertices[a + 1],
+				vertices[c + 2] - vertices[a + 2]);
+		return u.cross(v).normalize();
 	}
 
 	@Override
 	public Intersection getIntersection(Ray ray) {
-		Intersection closest = null;
-		double closestDistance = Double.MAX_VALUE;
-		Point origin = ray.origin;
-		for (MeshTriangle tri : triangles) {
-			Intersection i = tri.getIntersection(ray);
-			if (i != null) {
-				double distance = origin.subtract(i.getCordinate()).length();
-				if (distance < closestDistance) {
-					closestDistance = distance;
-					closest = i;
-				}
-			}
-		}
-		return closest;
+		return hierarchy.getIntersection(ray);
+	}
+
+	@Override
+	public boolean intersect(Ray ray, Hit hit) {
+		return hierarchy.intersect(ray, hit);
+	}
+
+	@Override
+	public boolean intersects(Ray ray, double tMax) {
+		return hierarchy.intersects(ray, tMax);
+	}
+
+	@Override
+	public void intersect(RayPacket packet) {
+		packet.intersect(hierarchy);
+	}
+
+	@Override
+	public void intersects(RayPacket packet) {
+		packet.intersects(hierarchy);
 	}
 
 
@@ -157,12 +546,12 @@ public class PolygonMesh implements Shape {
 
 	@Override
 	public Point getCentric() {
-		return null;
+		return flat.getCentric();
 	}
 
 	@Override
 	public BV createNewBV() {
-		return bv;
+		return flat.createNewBV();
 	}
 
 	@Override
@@ -22,6 +22,45 @@ public interface Shape {
 	 * @return true when the given ray intersects this shape.
 	 */
 	public Intersection getIntersection(Ray ray);
+
+	/**
+	 * Returns whether the given ray hits this shape at a ray parameter smaller
+	 * than the given maximum. Unlike {@link #getIntersection(Ray)}, no normal,
+	 * texture coordinates or colour are computed and any hit suffices.
+	 * 
+	 * @param ray
+	 *            the ray to intersect with.
+	 * @param tMax
+	 *            the ray parameter beyond which hits are ignored.
+	 * @return true when the given ray hits this shape before tMax.
+	 */
+	public boolean intersects(Ray ray, double tMax);
+
+	/**
+	 * Records the hit of the given ray with this shape in the given hit when
+	 * it is closer than the hit recorded so far. Only the ray parameter, the
+	 * hit primitive and its barycentric coordinates are computed.
+	 * 
+	 * @param ray
+	 *            the ray to intersect with.
+	 * @param hit
+	 *            the closest hit so far, updated when this shape is closer.
+	 * @return true when the given hit was updated.
+	 */
+	public boolean intersect(Ray ray, Hit hit);
+
+	/**
+	 * Returns the intersection with its normal, texture coordinates and
+	 * colour for the given hit, which was recorded by
+	 * {@link #intersect(Ray, Hit)} for the given ray.
+	 * 
+	 * @param ray
+	 *            the ray the hit was recorded for.
+	 * @param hit
+	 *            the hit recorded for this shape.
+	 * @return the intersection of the given hit.
+	 */
+	public Intersection getIntersection(Ray ray, Hit hit);
 	
 	public Vector getNormal(Point p);
 	
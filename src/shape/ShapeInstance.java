@@ -1,6 +1,8 @@
 package shape;
 
 import acceleration.BV;
+import acceleration.PacketTraversable;
+import acceleration.RayPacket;
 import math.Point;
 import math.Ray;
 import math.Transformation;
@@ -8,7 +10,7 @@ import math.Vector;
 import texture.Texture;
 import util.Pair;
 
-public class ShapeInstance implements Shape {
+public class ShapeInstance implements Shape, PacketTraversable {
 
 	
 	public Shape shape;
@@ -22,18 +24,65 @@ public class ShapeInstance implements Shape {
 	}
 	@Override
 	public Intersection getIntersection(Ray ray) {
-		Ray raytransformed = transformation.transformInverse(ray);
-		Intersection i = shape.getIntersection(raytransformed);
+		Hit hit = new Hit(ray);
+		if (!intersect(ray, hit)) {
+			return null;
+		}
+		return getIntersection(ray, hit);
+	}
+
+	@Override
+	public boolean intersect(Ray ray, Hit hit) {
+		return shape.intersect(transformation.transformInverse(ray), hit);
+	}
+
+	@Override
+	public Intersection getIntersection(Ray ray, Hit hit) {
+		return getIntersection(ray, transformation.transformInverse(ray), hit);
+	}
+
+	/**
+	 * Returns the intersection for the given hit of the given ray with this
+	 * instance, where the given local ray is the ray already transformed to
+	 * the space of the shape. The texture is only evaluated here, once for
+	 * the final hit.
+	 */
+	public Intersection getIntersection(Ray ray, Ray local, Hit hit) {
+		Intersection i = shape.getIntersection(local, hit);
 		if (i == null) {
 			return null;
-		} if (! (i.getShape() instanceof BV && ! (i.getColor() == null))) {
-			i.setColor(texture.evaluate(i.getShape().getUV(i.getCordinate())));
+		} if (i.getColor() == null) {
+			i.setColor(texture.evaluate(i.getUV()));
 		}
 		
-		return transformation.transform(i);
+		return transformation.transform(i, ray);
 	}
 
 
+	@Override
+	public boolean intersects(Ray ray, double tMax) {
+		// ray parameters are preserved by the transformation
+		return shape.intersects(transformation.transformInverse(ray), tMax);
+	}
+
+	@Override
+	public void intersect(RayPacket packet) {
+		if (transformation.isIdentity()) {
+			packet.intersect(shape);
+		} else {
+			packet.transformInverse(transformation).intersect(shape);
+		}
+	}
+
+	@Override
+	public void intersects(RayPacket packet) {
+		if (transformation.isIdentity()) {
+			packet.intersects(shape);
+		} else {
+			packet.transformInverse(transformation).intersects(shape);
+		}
+	}
+
 	@Override
 	public Vector getNormal(Point p) {
 		return transformation.transform(shape.getNormal(p));
@@ -51,7 +100,9 @@ public class ShapeInstance implements Shape {
 
 	@Override
 	public BV createNewBV() {
-		return shape.createNewBV();
+		BV bv = shape.createNewBV().getTransformedBV(transformation);
+		bv.addShape(this);
+		return bv;
 	}
 	
 	@Override
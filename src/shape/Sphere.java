@@ -66,7 +66,38 @@ public class Sphere implements Shape {
 			closest = Math.min(t0, t1);
 		}
 		Point intersectionPoint = ray.origin.add(ray.direction.scale(closest));
-		return new Intersection(intersectionPoint, this, ray, getNormal(intersectionPoint));
+		return new Intersection(intersectionPoint, this, ray, getNormal(intersectionPoint), closest);
+	}
+
+	@Override
+	public boolean intersects(Ray ray, double tMax) {
+		double ox = ray.origin.x, oy = ray.origin.y, oz = ray.origin.z;
+		double dx = ray.direction.x, dy = ray.direction.y, dz = ray.direction.z;
+
+		double a = dx * dx + dy * dy + dz * dz;
+		double b = 2.0 * (dx * ox + dy * oy + dz * oz);
+		double c = ox * ox + oy * oy + oz * oz - 1.0;
+
+		double d = b * b - 4.0 * a * c;
+		if (d < 0)
+			return false;
+		double dr = Math.sqrt(d);
+		double q = -0.5 * (b < 0 ? (b - dr) : (b + dr));
+
+		double t0 = q / a;
+		double t1 = c / q;
+		double bias = Math.pow(10, -6);
+		return (t0 >= bias && t0 < tMax) || (t1 >= bias && t1 < tMax);
+	}
+
+	@Override
+	public boolean intersect(Ray ray, Hit hit) {
+		return hit.record(getIntersection(ray), ray);
+	}
+
+	@Override
+	public Intersection getIntersection(Ray ray, Hit hit) {
+		return getIntersection(ray);
 	}
 
 	@Override
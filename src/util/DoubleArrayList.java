@@ -0,0 +1,58 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * A growable list of primitive doubles.
+ */
+public class DoubleArrayList {
+
+	private double[] elements;
+	private int size = 0;
+
+	public DoubleArrayList() {
+		this(16);
+	}
+
+	public DoubleArrayList(int capacity) {
+		this.elements = new double[Math.max(1, capacity)];
+	}
+
+	public void add(double value) {
+		if (size == elements.length) {
+			elements = Arrays.copyOf(elements, 2 * elements.length);
+		}
+		elements[size++] = value;
+	}
+
+	public double get(int index) throws IndexOutOfBoundsException {
+		if (index >= size)
+			throw new IndexOutOfBoundsException("index " + index + " out of " + size + "!");
+		return elements[index];
+	}
+
+	public void set(int index, double value) throws IndexOutOfBoundsException {
+		if (index >= size)
+			throw new IndexOutOfBoundsException("index " + index + " out of " + size + "!");
+		elements[index] = value;
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Copies the elements to the given array starting at the given offset.
+	 */
+	public void copyTo(double[] target, int offset) {
+		System.arraycopy(elements, 0, target, offset, size);
+	}
+
+	public double[] toArray() {
+		return Arrays.copyOf(elements, size);
+	}
+}
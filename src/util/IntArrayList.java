@@ -0,0 +1,58 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * A growable list of primitive ints.
+ */
+public class IntArrayList {
+
+	private int[] elements;
+	private int size = 0;
+
+	public IntArrayList() {
+		this(16);
+	}
+
+	public IntArrayList(int capacity) {
+		this.elements = new int[Math.max(1, capacity)];
+	}
+
+	public void add(int value) {
+		if (size == elements.length) {
+			elements = Arrays.copyOf(elements, 2 * elements.length);
+		}
+		elements[size++] = value;
+	}
+
+	public int get(int index) throws IndexOutOfBoundsException {
+		if (index >= size)
+			throw new IndexOutOfBoundsException("index " + index + " out of " + size + "!");
+		return elements[index];
+	}
+
+	public void set(int index, int value) throws IndexOutOfBoundsException {
+		if (index >= size)
+			throw new IndexOutOfBoundsException("index " + index + " out of " + size + "!");
+		elements[index] = value;
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Copies the elements to the given array starting at the given offset.
+	 */
+	public void copyTo(int[] target, int offset) {
+		System.arraycopy(elements, 0, target, offset, size);
+	}
+
+	public int[] toArray() {
+		return Arrays.copyOf(elements, size);
+	}
+}